@@ -8,6 +8,9 @@ dependencies {
   // Kotlin reflection for runtime inspection
   implementation(libs.kotlin.reflect)
 
+  // Annotation types referenced by metamodels under test (e.g. DateField formats)
+  testImplementation(libs.spring.data.elasticsearch)
+
   // Additional testing for DSL module
   testImplementation(libs.mockk)
 
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+/**
+ * Declares the value of a `constant_keyword` field, as set by the `value` parameter of its
+ * mapping.
+ *
+ * Spring Data's `@Field` has no attribute for it, so the processor reads it from this annotation
+ * and passes it to the generated [ConstantKeywordField], letting query builders evaluate term-level
+ * queries on the field without sending them:
+ * ```kotlin
+ * @Document(indexName = "logs-2025")
+ * data class LogEntry(
+ *   @Field(type = FieldType.Constant_Keyword) @ConstantKeywordValue("logs-2025") val dataset: String,
+ * )
+ * ```
+ *
+ * The value must match the mapping of every index the metamodel is queried against.
+ */
+@Target(AnnotationTarget.FIELD, AnnotationTarget.PROPERTY)
+@Retention(AnnotationRetention.RUNTIME)
+@MustBeDocumented
+annotation class ConstantKeywordValue(val value: String)
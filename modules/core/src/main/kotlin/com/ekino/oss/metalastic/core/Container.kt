@@ -3,8 +3,8 @@
  */
 package com.ekino.oss.metalastic.core
 
+import java.util.concurrent.atomic.AtomicReferenceArray
 import kotlin.reflect.KType
-import kotlin.reflect.typeOf
 import org.springframework.data.elasticsearch.annotations.DateFormat
 
 /**
@@ -17,157 +17,444 @@ abstract class Container<T : Any?>(
   fieldType: KType,
 ) : Metamodel<T>(name, fieldType) {
 
-  private val fields: MutableList<Metamodel<*>> = mutableListOf()
+  // Containers from the root down to this one, and the nested ones among them: shared by every
+  // child as its ancestors (see Metamodel.attach)
+  @Volatile
+  internal var lineage: Array<Container<*>> = arrayOf(this)
+    private set
+
+  @Volatile
+  internal var nestedLineage: Array<Container<*>> = if (nested) arrayOf(this) else emptyArray()
+    private set
+
+  override fun attach(parent: Container<*>?) {
+    super.attach(parent)
+    if (parent != null) {
+      lineage = ancestors + this
+      nestedLineage = if (nested) nestedAncestors + this else nestedAncestors
+    }
+  }
+
+  /** Returns the path of this container as seen by its children, unnamed containers skipped. */
+  internal fun pathPrefix(): String =
+    if (name().isEmpty()) parent()?.pathPrefix().orEmpty() else path()
+
+  // Children registered while the container is constructed, in declaration order. Each one is
+  // either a Metamodel or a LazyChild declared through lazyObject. Only touched under the
+  // container lock, and dropped once frozen.
+  private var registered: ArrayList<Any>? = ArrayList()
+  private var lazySlots = 0
+
+  // Immutable snapshot of the children registered before freezing, built once. Readers only take
+  // the lock once, when the snapshot does not exist yet.
+  @Volatile private var frozen: Frozen? = null
+
+  // Children registered after freezing (e.g. a sub-tree re-rooted under an existing container),
+  // appended under the container lock without touching the snapshot. The array only grows, and
+  // readers see its first lateCount entries: lateCount is written after the entry it publishes.
+  @Volatile private var lateSlots: Array<Any?> = NO_LATE_SLOTS
+  @Volatile private var lateCount = 0
+
+  // Set by compact() before the empty snapshot of extra children is published: children are
+  // then materialized from a static table
+  @Volatile private var table: FieldTable? = null
+  @Volatile private var tableSlots: AtomicReferenceArray<Any?>? = null
 
   internal fun register(field: Metamodel<*>) {
-    fields.add(field)
+    val table = table
+    if (table != null && registerInTable(table, field)) {
+      return
+    }
+    synchronized(this) {
+      val pending = registered
+      when {
+        pending == null -> {
+          val current = frozen()
+          if (this.table?.let { registerInTable(it, field) } != true) {
+            // A late registration, e.g. a sub-tree re-rooted under an existing container
+            val slot = current.layout.slotOf(field.name())
+            val lazy =
+              if (slot >= 0) current.slots[slot] is LazyChild else isLateLazyChild(field.name())
+            if (!lazy) {
+              append(field)
+            }
+          }
+        }
+        // A lazily constructed child registering itself: its slot is already declared
+        lazySlots > 0 && pending.any { it is LazyChild && it.name == field.name() } -> Unit
+        else -> pending.add(field)
+      }
+    }
+  }
+
+  /**
+   * Declares an object sub-container constructed on first access, for use as a property delegate:
+   * ```kotlin
+   * val address: MetaAddress<Address> by lazyObject("address") { MetaAddress(this, "address") }
+   * ```
+   *
+   * The slot is registered immediately, so [fieldBy] and [Document.pathIndex] still see the full
+   * structure and construct the child when they reach it. Construction is thread-safe and happens
+   * at most once.
+   */
+  protected fun <C : ObjectField<*>> lazyObject(name: String, factory: () -> C): Lazy<C> {
+    val child = lazy(factory)
+    val slot = LazyChild(name, child)
+    synchronized(this) {
+      val tableSlot = table?.layout?.slotOf(name) ?: -1
+      val pending = registered
+      when {
+        tableSlot >= 0 -> checkNotNull(tableSlots)[tableSlot] = slot
+        pending != null -> {
+          pending.add(slot)
+          lazySlots++
+        }
+        else -> append(slot)
+      }
+    }
+    return child
+  }
+
+  /**
+   * Switches this container to the compact representation described by [table]. Must be called
+   * from the initializer of the subclass, before any child is declared:
+   * ```kotlin
+   * init { compact(FIELD_TABLE) }
+   *
+   * val id: KeywordField<String> get() = compactField(0)
+   * ```
+   *
+   * Leaf fields are then created on first access through [compactField], [fieldBy] or
+   * [Document.pathIndex]; sub-containers register into their [FieldKind.CONTAINER] slot as usual.
+   */
+  @Synchronized
+  protected fun compact(table: FieldTable) {
+    check(registered?.isEmpty() == true) {
+      "compact must be called before any child of '${name()}' is declared"
+    }
+    tableSlots = AtomicReferenceArray(table.size)
+    this.table = table
+    registered = null
+    frozen = NO_CHILDREN
+  }
+
+  /** Returns the child held in [slot] of the compact table, creating it on first access. */
+  @Suppress("UNCHECKED_CAST")
+  protected fun <F : Metamodel<*>> compactField(slot: Int): F {
+    frozen()
+    return checkNotNull(tableChild(checkNotNull(table), slot)) {
+      "No child registered for slot $slot of '${name()}'"
+    } as F
+  }
+
+  // Readers call frozen() before reading table: either the volatile read or the lock makes
+  // everything compact() wrote visible
+
+  internal fun children(): List<Metamodel<*>> {
+    val extras = frozen().slots
+    val lateCount = lateCount
+    val lateSlots = lateSlots
+    val table = table
+    val children = ArrayList<Metamodel<*>>((table?.size ?: 0) + extras.size + lateCount)
+    if (table != null) {
+      for (slot in 0 until table.size) {
+        val child = tableChild(table, slot) ?: continue
+        // Matches the eager layout, where the main field registers before its multi-field
+        if (child is MultiField<*, *>) {
+          children.add(child.mainField())
+        }
+        children.add(child)
+      }
+    }
+    extras.forEach { children.add(resolve(it)) }
+    for (index in 0 until lateCount) {
+      children.add(resolve(lateSlots[index]!!))
+    }
+    return children
+  }
+
+  private fun childAt(path: CharSequence, start: Int, end: Int): Metamodel<*>? {
+    val frozen = frozen()
+    val table = table
+    if (table != null) {
+      val slot = table.layout.slotOf(path, start, end)
+      if (slot >= 0) {
+        return tableChild(table, slot)
+      }
+    }
+    val slot = frozen.layout.slotOf(path, start, end)
+    if (slot >= 0) {
+      return resolve(frozen.slots[slot])
+    }
+    return lateChildAt(path, start, end)
   }
 
+  /** Returns the late child named `path[start, end)`, a [MultiField] winning over earlier ones. */
+  private fun lateChildAt(path: CharSequence, start: Int, end: Int): Metamodel<*>? {
+    val count = lateCount
+    val slots = lateSlots
+    var found: Any? = null
+    for (index in 0 until count) {
+      val slot = slots[index]!!
+      val wins = found == null || slot is MultiField<*, *>
+      if (wins && nameOf(slot).regionEquals(path, start, end)) {
+        found = slot
+      }
+    }
+    return found?.let { resolve(it) }
+  }
+
+  private fun tableChild(table: FieldTable, slot: Int): Metamodel<*>? {
+    val slots = checkNotNull(tableSlots)
+    slots[slot]?.let {
+      return resolve(it)
+    }
+    val created = table.create(this, slot) ?: return null
+    // Concurrent materializations keep the first instance
+    return if (slots.compareAndSet(slot, null, created)) created else resolve(slots[slot]!!)
+  }
+
+  /** Fills the table slot of [field], returning `false` when its name is not in [table]. */
+  private fun registerInTable(table: FieldTable, field: Metamodel<*>): Boolean {
+    val slot = table.layout.slotOf(field.name())
+    if (slot < 0) {
+      return false
+    }
+    // Leaf fields (and multi-field main fields) are materialized from the table instead
+    if (table.kind(slot) == FieldKind.CONTAINER && field is Container<*>) {
+      checkNotNull(tableSlots).compareAndSet(slot, null, field)
+    }
+    return true
+  }
+
+  /** Whether a lazy object named [name] was declared after freezing. Must hold the lock. */
+  private fun isLateLazyChild(name: String): Boolean =
+    (0 until lateCount).any { lateSlots[it].let { slot -> slot is LazyChild && slot.name == name } }
+
+  /** Appends [slot] to the late children, growing their array. Must hold the container lock. */
+  private fun append(slot: Any) {
+    val count = lateCount
+    var slots = lateSlots
+    if (count == slots.size) {
+      slots = slots.copyOf(maxOf(MIN_LATE_SLOTS, count * 2))
+    }
+    slots[count] = slot
+    lateSlots = slots
+    lateCount = count + 1
+  }
+
+  private fun frozen(): Frozen = frozen ?: freeze()
+
+  /**
+   * Ends registration: children are moved to an array and the name table comes from the layout
+   * shared by every instance of this class (see [ContainerLayout]).
+   */
+  @Synchronized
+  private fun freeze(): Frozen =
+    frozen
+      ?: run {
+        val slots = checkNotNull(registered).toTypedArray()
+        Frozen(slots, ContainerLayout.shared(javaClass, namesOf(slots), slots)).also {
+          registered = null
+          frozen = it
+        }
+      }
+
+  private class Frozen(val slots: Array<Any>, val layout: ContainerLayout)
+
+  private class LazyChild(val name: String, val child: Lazy<Metamodel<*>>)
+
+  private companion object {
+    const val MIN_LATE_SLOTS = 4
+    val NO_CHILDREN = Frozen(emptyArray(), ContainerLayout.EMPTY)
+    val NO_LATE_SLOTS: Array<Any?> = emptyArray()
+  }
+
+  private fun namesOf(slots: Array<Any>): Array<String> = Array(slots.size) { nameOf(slots[it]) }
+
+  private fun nameOf(slot: Any): String =
+    when (slot) {
+      is LazyChild -> slot.name
+      else -> (slot as Metamodel<*>).name()
+    }
+
   fun isNested(): Boolean = nested
 
-  fun fieldBy(path: String): Metamodel<*>? {
-    if (path.isBlank()) {
-      return null
+  fun fieldBy(path: String): Metamodel<*>? = fieldBy(path, 0, path.length)
+
+  /**
+   * Resolves the dotted path held in `path[start, end)` relative to this container, e.g. a field
+   * name sliced out of a request buffer. Each segment is a single hash probe on the child index,
+   * and no intermediate strings are allocated.
+   *
+   * A path that stops on a [MultiField] resolves to its main field, while `title.keyword` reaches
+   * the inner field.
+   */
+  fun fieldBy(path: CharSequence, start: Int, end: Int): Metamodel<*>? {
+    require(start in 0..end && end <= path.length) {
+      "Invalid range [$start, $end) for a path of length ${path.length}"
+    }
+    var container: Container<*> = this
+    var segmentStart = start
+    while (!path.isBlankBetween(segmentStart, end)) {
+      val dot = path.indexOf('.', segmentStart)
+      val segmentEnd = if (dot in 0 until end) dot else end
+      val field = container.childAt(path, segmentStart, segmentEnd) ?: return null
+      when {
+        segmentEnd == end -> return field.terminal()
+        segmentEnd + 1 == end -> return field.terminal().takeIf { it !is Container<*> }
+        field !is Container<*> -> return null
+      }
+      container = field
+      segmentStart = segmentEnd + 1
     }
-    val fieldName = path.substringBefore(".")
-    val remainingPath = path.substringAfter(".").takeIf { it != path }
-    val field = fields.firstOrNull { it.name() == fieldName }
+    return null
+  }
 
-    return when {
-      field == null -> null
-      remainingPath == null -> field
-      field is Container<*> -> field.fieldBy(remainingPath)
-      else -> field.takeIf { remainingPath.isEmpty() }
+  private fun resolve(slot: Any): Metamodel<*> =
+    if (slot is LazyChild) slot.child.value else slot as Metamodel<*>
+
+  private fun Metamodel<*>.terminal(): Metamodel<*> =
+    if (this is MultiField<*, *>) mainField() else this
+
+  private fun CharSequence.isBlankBetween(start: Int, end: Int): Boolean {
+    for (i in start until end) {
+      if (!this[i].isWhitespace()) {
+        return false
+      }
     }
+    return true
   }
 
   // Auto field helpers
   inline fun <reified T : Any?> auto(fieldName: String): AutoField<T> =
-    AutoField(this, fieldName, typeOf<T>())
+    AutoField(this, fieldName, lazyTypeOf<T>())
 
   // Text field helpers
   inline fun <reified T : Any?> text(fieldName: String): TextField<T> =
-    TextField(this, fieldName, typeOf<T>())
+    TextField(this, fieldName, lazyTypeOf<T>())
 
   // Keyword field helpers
   inline fun <reified T : Any?> keyword(fieldName: String): KeywordField<T> =
-    KeywordField(this, fieldName, typeOf<T>())
+    KeywordField(this, fieldName, lazyTypeOf<T>())
 
   // Numeric field helpers
   inline fun <reified T : Any?> long(fieldName: String): LongField<T> =
-    LongField(this, fieldName, typeOf<T>())
+    LongField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> integer(fieldName: String): IntegerField<T> =
-    IntegerField(this, fieldName, typeOf<T>())
+    IntegerField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> short(fieldName: String): ShortField<T> =
-    ShortField(this, fieldName, typeOf<T>())
+    ShortField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> byte(fieldName: String): ByteField<T> =
-    ByteField(this, fieldName, typeOf<T>())
+    ByteField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> double(fieldName: String): DoubleField<T> =
-    DoubleField(this, fieldName, typeOf<T>())
+    DoubleField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> float(fieldName: String): FloatField<T> =
-    FloatField(this, fieldName, typeOf<T>())
+    FloatField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> halfFloat(fieldName: String): HalfFloatField<T> =
-    HalfFloatField(this, fieldName, typeOf<T>())
+    HalfFloatField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> scaledFloat(fieldName: String): ScaledFloatField<T> =
-    ScaledFloatField(this, fieldName, typeOf<T>())
+    ScaledFloatField(this, fieldName, lazyTypeOf<T>())
 
   // Date field helpers
   inline fun <reified T : Any?> date(
     fieldName: String,
     formats: List<DateFormat> = emptyList(),
-  ): DateField<T> = DateField(this, fieldName, typeOf<T>(), formats)
+  ): DateField<T> = DateField(this, fieldName, lazyTypeOf<T>(), formats)
 
   inline fun <reified T : Any?> dateNanos(fieldName: String): DateNanosField<T> =
-    DateNanosField(this, fieldName, typeOf<T>())
+    DateNanosField(this, fieldName, lazyTypeOf<T>())
 
   // Boolean field helper
   inline fun <reified T : Any?> boolean(fieldName: String): BooleanField<T> =
-    BooleanField(this, fieldName, typeOf<T>())
+    BooleanField(this, fieldName, lazyTypeOf<T>())
 
   // Binary field helper
   inline fun <reified T : Any?> binary(fieldName: String): BinaryField<T> =
-    BinaryField(this, fieldName, typeOf<T>())
+    BinaryField(this, fieldName, lazyTypeOf<T>())
 
   // IP field helper
   inline fun <reified T : Any?> ip(fieldName: String): IpField<T> =
-    IpField(this, fieldName, typeOf<T>())
+    IpField(this, fieldName, lazyTypeOf<T>())
 
   // Specialized field helpers
   inline fun <reified T : Any?> completion(fieldName: String): CompletionField<T> =
-    CompletionField(this, fieldName, typeOf<T>())
+    CompletionField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> tokenCount(fieldName: String): TokenCountField<T> =
-    TokenCountField(this, fieldName, typeOf<T>())
+    TokenCountField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> percolator(fieldName: String): PercolatorField<T> =
-    PercolatorField(this, fieldName, typeOf<T>())
+    PercolatorField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> rankFeature(fieldName: String): RankFeatureField<T> =
-    RankFeatureField(this, fieldName, typeOf<T>())
+    RankFeatureField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> rankFeatures(fieldName: String): RankFeaturesField<T> =
-    RankFeaturesField(this, fieldName, typeOf<T>())
+    RankFeaturesField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> flattened(fieldName: String): FlattenedField<T> =
-    FlattenedField(this, fieldName, typeOf<T>())
+    FlattenedField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> shape(fieldName: String): ShapeField<T> =
-    ShapeField(this, fieldName, typeOf<T>())
+    ShapeField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> point(fieldName: String): PointField<T> =
-    PointField(this, fieldName, typeOf<T>())
+    PointField(this, fieldName, lazyTypeOf<T>())
 
-  inline fun <reified T : Any?> constantKeyword(fieldName: String): ConstantKeywordField<T> =
-    ConstantKeywordField(this, fieldName, typeOf<T>())
+  inline fun <reified T : Any?> constantKeyword(
+    fieldName: String,
+    value: String? = null,
+  ): ConstantKeywordField<T> = ConstantKeywordField(this, fieldName, lazyTypeOf<T>(), value)
 
   inline fun <reified T : Any?> wildcard(fieldName: String): WildcardField<T> =
-    WildcardField(this, fieldName, typeOf<T>())
+    WildcardField(this, fieldName, lazyTypeOf<T>())
 
   // Range field helpers
   inline fun <reified T : Any?> integerRange(fieldName: String): IntegerRangeField<T> =
-    IntegerRangeField(this, fieldName, typeOf<T>())
+    IntegerRangeField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> floatRange(fieldName: String): FloatRangeField<T> =
-    FloatRangeField(this, fieldName, typeOf<T>())
+    FloatRangeField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> longRange(fieldName: String): LongRangeField<T> =
-    LongRangeField(this, fieldName, typeOf<T>())
+    LongRangeField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> doubleRange(fieldName: String): DoubleRangeField<T> =
-    DoubleRangeField(this, fieldName, typeOf<T>())
+    DoubleRangeField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> dateRange(fieldName: String): DateRangeField<T> =
-    DateRangeField(this, fieldName, typeOf<T>())
+    DateRangeField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> ipRange(fieldName: String): MatchOnlyTextField<T> =
-    MatchOnlyTextField(this, fieldName, typeOf<T>())
+    MatchOnlyTextField(this, fieldName, lazyTypeOf<T>())
 
   // Advanced field helpers
   inline fun <reified T : Any?> searchAsYouType(fieldName: String): SearchAsYouTypeField<T> =
-    SearchAsYouTypeField(this, fieldName, typeOf<T>())
+    SearchAsYouTypeField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> denseVector(fieldName: String): DenseVectorField<T> =
-    DenseVectorField(this, fieldName, typeOf<T>())
+    DenseVectorField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> alias(fieldName: String): AliasField<T> =
-    AliasField(this, fieldName, typeOf<T>())
+    AliasField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> version(fieldName: String): VersionField<T> =
-    VersionField(this, fieldName, typeOf<T>())
+    VersionField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> murmur3(fieldName: String): Murmur3Field<T> =
-    Murmur3Field(this, fieldName, typeOf<T>())
+    Murmur3Field(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> matchOnlyText(fieldName: String): MatchOnlyTextField<T> =
-    MatchOnlyTextField(this, fieldName, typeOf<T>())
+    MatchOnlyTextField(this, fieldName, lazyTypeOf<T>())
 
   inline fun <reified T : Any?> annotatedText(fieldName: String): AnnotatedTextField<T> =
-    AnnotatedTextField(this, fieldName, typeOf<T>())
+    AnnotatedTextField(this, fieldName, lazyTypeOf<T>())
 }
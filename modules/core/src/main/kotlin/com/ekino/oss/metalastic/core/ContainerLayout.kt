@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.reflect.KType
+
+/**
+ * Path-relative structure of a [Container]: child names, kinds and field types, plus an
+ * open-addressing name → slot table backing [Container.fieldBy].
+ *
+ * A layout is shared by every instance of the same container class (e.g. each `MetaAddress`
+ * reached from many documents), so a usage site only carries its parent pointer, its name and an
+ * array of children. Instances adopting a shared layout also reuse its field types, leaving their
+ * own equal copies to be collected. The child fields themselves are still created per instance.
+ *
+ * Lookups hash a region of a [CharSequence] with the same function as [String.hashCode] and
+ * compare characters in place, so resolving one path segment never allocates a substring. When two
+ * children share a name (a [MultiField] and its main field), the [MultiField] wins so that its
+ * inner fields stay reachable; [Container.fieldBy] maps it back to the main field for terminal
+ * segments.
+ */
+internal class ContainerLayout
+private constructor(
+  private val names: Array<String>,
+  private val kinds: Array<Class<*>>,
+  private val fieldTypes: Array<KType?>,
+) {
+
+  // slot + 1 per bucket, 0 for an empty bucket
+  private val table = IntArray(tableCapacity(names.size))
+
+  init {
+    val mask = table.size - 1
+    names.forEachIndexed { slot, name ->
+      var bucket = spread(name.hashCode()) and mask
+      while (true) {
+        val existing = table[bucket] - 1
+        when {
+          existing < 0 -> {
+            table[bucket] = slot + 1
+            break
+          }
+          names[existing] == name -> {
+            if (MultiField::class.java.isAssignableFrom(kinds[slot])) {
+              table[bucket] = slot + 1
+            }
+            break
+          }
+          else -> bucket = (bucket + 1) and mask
+        }
+      }
+    }
+  }
+
+  /** Returns the slot of the child named `path[start, end)`, or -1. */
+  fun slotOf(path: CharSequence, start: Int, end: Int): Int {
+    val mask = table.size - 1
+    var bucket = spread(hashOf(path, start, end)) and mask
+    while (true) {
+      val slot = table[bucket] - 1
+      if (slot < 0 || names[slot].regionEquals(path, start, end)) {
+        return slot
+      }
+      bucket = (bucket + 1) and mask
+    }
+  }
+
+  fun slotOf(name: String): Int = slotOf(name, 0, name.length)
+
+  private fun matches(names: Array<String>, children: Array<Any>): Boolean =
+    names.size == this.names.size &&
+      names.indices.all { slot ->
+        (names[slot] === this.names[slot] || names[slot] == this.names[slot]) &&
+          children[slot].javaClass == kinds[slot]
+      }
+
+  private fun shareWith(children: Array<Any>) {
+    children.forEachIndexed { slot, child ->
+      val sharedType = fieldTypes[slot]
+      if (child is Metamodel<*> && sharedType != null) {
+        child.shareFieldType(sharedType)
+      }
+    }
+  }
+
+  companion object {
+    private const val HASH_MULTIPLIER = 31
+    private const val HALF_INT_BITS = 16
+
+    val EMPTY = ContainerLayout(emptyArray(), emptyArray(), emptyArray())
+
+    private val published =
+      object : ClassValue<AtomicReference<ContainerLayout?>>() {
+        override fun computeValue(type: Class<*>) = AtomicReference<ContainerLayout?>()
+      }
+
+    /**
+     * Returns the layout shared by instances of [containerClass] when [children] (named [names])
+     * match it, publishing a new one for the first instance, or a private layout when this
+     * instance diverges from the published structure.
+     */
+    fun shared(
+      containerClass: Class<*>,
+      names: Array<String>,
+      children: Array<Any>,
+    ): ContainerLayout {
+      val reference = published.get(containerClass)
+      while (true) {
+        val current = reference.get()
+        when {
+          current == null -> {
+            val layout = of(names, children)
+            if (reference.compareAndSet(null, layout)) {
+              return layout
+            }
+          }
+          current.matches(names, children) -> {
+            current.shareWith(children)
+            return current
+          }
+          else -> return of(names, children)
+        }
+      }
+    }
+
+    /** Builds the layout of a [FieldTable], whose names are unique. */
+    fun forNames(names: Array<String>): ContainerLayout =
+      ContainerLayout(
+        names = names,
+        kinds = Array(names.size) { Metamodel::class.java },
+        fieldTypes = arrayOfNulls(names.size),
+      )
+
+    /** Builds a layout used by a single instance only. */
+    fun of(names: Array<String>, children: Array<Any>): ContainerLayout =
+      ContainerLayout(
+        names = names,
+        kinds = Array(children.size) { children[it].javaClass },
+        fieldTypes = Array(children.size) { (children[it] as? Metamodel<*>)?.rawFieldType() },
+      )
+
+    private fun tableCapacity(size: Int): Int {
+      var capacity = 2
+      while (capacity * 3 < size * 4 + 1) {
+        capacity *= 2
+      }
+      return capacity
+    }
+
+    private fun spread(hash: Int): Int = hash xor (hash ushr HALF_INT_BITS)
+
+    private fun hashOf(path: CharSequence, start: Int, end: Int): Int {
+      var hash = 0
+      for (i in start until end) {
+        hash = HASH_MULTIPLIER * hash + path[i].code
+      }
+      return hash
+    }
+  }
+}
+
+/** Whether this string equals `path[start, end)`, compared in place. */
+internal fun String.regionEquals(path: CharSequence, start: Int, end: Int): Boolean {
+  if (length != end - start) {
+    return false
+  }
+  for (i in indices) {
+    if (this[i] != path[start + i]) {
+      return false
+    }
+  }
+  return true
+}
@@ -3,6 +3,8 @@
  */
 package com.ekino.oss.metalastic.core
 
+import java.util.Collections
+import java.util.IdentityHashMap
 import kotlin.reflect.KType
 
 /**
@@ -15,6 +17,66 @@ abstract class Document<T : Any?>(
   nested: Boolean = false,
   fieldType: KType,
 ) : ObjectField<T>(parent, name, nested, fieldType) {
+
+  private val paths: Paths by lazy { Paths(this) }
+
   /** Returns the name of the Elasticsearch index where this document type is stored. */
   abstract fun indexName(): String
+
+  /**
+   * Returns every field of this document keyed by its Elasticsearch path, in declaration order.
+   *
+   * Multi-field inner fields are included (`title.keyword`), and a multi-field path itself
+   * (`title`) maps to its main field. The map is built on first access and is read-only.
+   */
+  fun pathIndex(): Map<String, Metamodel<*>> = paths.byPath
+
+  /**
+   * Resolves a path as reported by Elasticsearch (aggregation keys, highlight fields, sort values,
+   * ...) with a single hash probe.
+   */
+  fun metamodelAt(path: String): Metamodel<*>? = paths.byPath[path]
+
+  /** Returns the number of fields of this document, i.e. the size of [pathIndex]. */
+  fun fieldCount(): Int = paths.byId.size
+
+  /**
+   * Returns the dense id of the field at [path]: its position in [pathIndex], from `0` to
+   * [fieldCount] (exclusive), or `-1` when there is no such field. Ids are stable for a given
+   * metamodel and match the generated `FieldIds` constants, so field sets can be kept as bit sets.
+   */
+  fun fieldId(path: String): Int = metamodelAt(path)?.let { fieldId(it) } ?: -1
+
+  /** Returns the dense id of [metamodel] (a multi-field has the id of its main field), or `-1`. */
+  fun fieldId(metamodel: Metamodel<*>): Int {
+    val field = if (metamodel is MultiField<*, *>) metamodel.mainField() else metamodel
+    return paths.ids[field] ?: -1
+  }
+
+  /** Returns the field with the dense [id], see [fieldId]. */
+  fun fieldById(id: Int): Metamodel<*> = paths.byId[id]
+
+  private class Paths(document: Document<*>) {
+    val byPath: Map<String, Metamodel<*>>
+    val byId: Array<Metamodel<*>>
+    val ids = IdentityHashMap<Metamodel<*>, Int>()
+
+    init {
+      val index = LinkedHashMap<String, Metamodel<*>>()
+      fun collect(container: Container<*>) {
+        container.children().forEach { child ->
+          // The main field of a multi-field registers first, so it keeps the shared path
+          if (index.putIfAbsent(child.path(), child) == null) {
+            ids[child] = index.size - 1
+          }
+          if (child is Container<*>) {
+            collect(child)
+          }
+        }
+      }
+      collect(document)
+      byPath = Collections.unmodifiableMap(index)
+      byId = index.values.toTypedArray()
+    }
+  }
 }
@@ -3,6 +3,7 @@
  */
 package com.ekino.oss.metalastic.core
 
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.reflect.KType
 import org.springframework.data.elasticsearch.annotations.DateFormat
 
@@ -10,6 +11,7 @@ sealed class Field<T>(private val parent: Container<*>, fieldName: String, field
   Metamodel<T>(fieldName, fieldType) {
 
   init {
+    attach(parent)
     parent.register(this)
   }
 
@@ -56,8 +58,42 @@ class DateField<T : Any?>(
   parent: Container<*>,
   fieldName: String,
   fieldType: KType,
-  val formats: List<DateFormat> = emptyList(),
-) : Field<T>(parent, fieldName, fieldType)
+  formats: List<DateFormat> = emptyList(),
+) : Field<T>(parent, fieldName, fieldType) {
+
+  /** The declared formats, as an immutable list shared by every field declaring the same ones. */
+  val formats: List<DateFormat> = sharedFormats(formats)
+
+  // Result of compiledFormats, set on first use
+  @Volatile private var compiled: Any? = null
+
+  /**
+   * Returns [formats] compiled by [compile] into a [type] instance, such as the formatters the
+   * query DSL prints date values with. The result is computed on the first call and kept by the
+   * field, so later calls neither compile nor look anything up. Concurrent first calls may both
+   * compile.
+   */
+  @InternalMetalasticApi
+  fun <C : Any> compiledFormats(type: Class<C>, compile: (List<DateFormat>) -> C): C {
+    val current = compiled
+    if (type.isInstance(current)) {
+      return type.cast(current)
+    }
+    return compile(formats).also { compiled = it }
+  }
+}
+
+// Canonical immutable copy of each list of date formats declared so far
+private val declaredFormats = ConcurrentHashMap<List<DateFormat>, List<DateFormat>>()
+
+private fun sharedFormats(formats: List<DateFormat>): List<DateFormat> {
+  if (formats.isEmpty()) {
+    return emptyList()
+  }
+  // The declared list may be mutable: only an immutable copy is used as a key
+  return declaredFormats[formats]
+    ?: List.copyOf(formats).let { declaredFormats.putIfAbsent(it, it) ?: it }
+}
 
 class DateNanosField<T : Any?>(parent: Container<*>, fieldName: String, fieldType: KType) :
   Field<T>(parent, fieldName, fieldType)
@@ -98,8 +134,18 @@ class ShapeField<T : Any?>(parent: Container<*>, fieldName: String, fieldType: K
 class PointField<T : Any?>(parent: Container<*>, fieldName: String, fieldType: KType) :
   Field<T>(parent, fieldName, fieldType)
 
-class ConstantKeywordField<T : Any?>(parent: Container<*>, fieldName: String, fieldType: KType) :
-  Field<T>(parent, fieldName, fieldType)
+/**
+ * A `constant_keyword` field, holding the same [value] for every document of an index.
+ *
+ * @param value the constant value declared with [ConstantKeywordValue], `null` when unknown (e.g.
+ *   set by the first indexed document)
+ */
+class ConstantKeywordField<T : Any?>(
+  parent: Container<*>,
+  fieldName: String,
+  fieldType: KType,
+  val value: String? = null,
+) : Field<T>(parent, fieldName, fieldType)
 
 class WildcardField<T : Any?>(parent: Container<*>, fieldName: String, fieldType: KType) :
   Field<T>(parent, fieldName, fieldType)
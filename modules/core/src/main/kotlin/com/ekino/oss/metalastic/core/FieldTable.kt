@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+import kotlin.reflect.KType
+import org.springframework.data.elasticsearch.annotations.DateFormat
+
+/**
+ * Static description of the children of a compact container, as parallel arrays indexed by slot:
+ * Elasticsearch names, [FieldKind]s, field types, date formats and constant values.
+ *
+ * Generated metamodels built with the `metalastic.compactMetamodels` option hold one table per
+ * class and pass it to [Container.compact]. Leaf fields are then materialized from the table on
+ * first access instead of being constructed with their container, so a document only allocates
+ * the fields that are actually used. Sub-containers ([FieldKind.CONTAINER] slots) are still
+ * constructed by the generated class and fill their slot when they register.
+ *
+ * @param names Elasticsearch name of each child
+ * @param kinds kind of each child
+ * @param fieldTypes field type of each leaf child, `null` for [FieldKind.CONTAINER] slots
+ * @param dateFormats formats of each [FieldKind.DATE] child, `null` (or absent) when none
+ * @param constantValues value of each [FieldKind.CONSTANT_KEYWORD] child, `null` (or absent) when
+ *   unknown
+ */
+class FieldTable(
+  private val names: Array<String>,
+  private val kinds: Array<FieldKind>,
+  private val fieldTypes: Array<KType?>,
+  private val dateFormats: Array<List<DateFormat>?>? = null,
+  private val constantValues: Array<String?>? = null,
+) {
+
+  init {
+    require(kinds.size == names.size && fieldTypes.size == names.size) {
+      "Field table arrays must have the same size: ${names.size} names, ${kinds.size} kinds, " +
+        "${fieldTypes.size} field types"
+    }
+    require(dateFormats == null || dateFormats.size == names.size) {
+      "Field table date formats must have one entry per name"
+    }
+    require(constantValues == null || constantValues.size == names.size) {
+      "Field table constant values must have one entry per name"
+    }
+  }
+
+  internal val layout: ContainerLayout = ContainerLayout.forNames(names)
+
+  val size: Int
+    get() = names.size
+
+  fun name(slot: Int): String = names[slot]
+
+  fun kind(slot: Int): FieldKind = kinds[slot]
+
+  /** Creates the leaf field of [slot] in [parent], or returns `null` for a container slot. */
+  internal fun create(parent: Container<*>, slot: Int): Field<*>? {
+    val kind = kinds[slot]
+    if (kind == FieldKind.CONTAINER) {
+      return null
+    }
+    val fieldType = checkNotNull(fieldTypes[slot]) { "No field type for ${names[slot]}" }
+    return when (kind) {
+      FieldKind.DATE ->
+        DateField<Any?>(parent, names[slot], fieldType, dateFormats?.get(slot).orEmpty())
+      FieldKind.CONSTANT_KEYWORD ->
+        ConstantKeywordField<Any?>(parent, names[slot], fieldType, constantValues?.get(slot))
+      else -> kind.create(parent, names[slot], fieldType)
+    }
+  }
+}
+
+/** Kind of a [FieldTable] slot: one per [Field] class, plus [CONTAINER] for sub-containers. */
+enum class FieldKind(
+  val fieldClass: Class<out Metamodel<*>>,
+  private val factory: ((Container<*>, String, KType) -> Field<*>)?,
+) {
+  CONTAINER(Container::class.java, null),
+  AUTO(AutoField::class.java, { p, n, t -> AutoField<Any?>(p, n, t) }),
+  TEXT(TextField::class.java, { p, n, t -> TextField<Any?>(p, n, t) }),
+  KEYWORD(KeywordField::class.java, { p, n, t -> KeywordField<Any?>(p, n, t) }),
+  LONG(LongField::class.java, { p, n, t -> LongField<Any?>(p, n, t) }),
+  INTEGER(IntegerField::class.java, { p, n, t -> IntegerField<Any?>(p, n, t) }),
+  SHORT(ShortField::class.java, { p, n, t -> ShortField<Any?>(p, n, t) }),
+  BYTE(ByteField::class.java, { p, n, t -> ByteField<Any?>(p, n, t) }),
+  DOUBLE(DoubleField::class.java, { p, n, t -> DoubleField<Any?>(p, n, t) }),
+  FLOAT(FloatField::class.java, { p, n, t -> FloatField<Any?>(p, n, t) }),
+  HALF_FLOAT(HalfFloatField::class.java, { p, n, t -> HalfFloatField<Any?>(p, n, t) }),
+  SCALED_FLOAT(ScaledFloatField::class.java, { p, n, t -> ScaledFloatField<Any?>(p, n, t) }),
+  DATE(DateField::class.java, { p, n, t -> DateField<Any?>(p, n, t) }),
+  DATE_NANOS(DateNanosField::class.java, { p, n, t -> DateNanosField<Any?>(p, n, t) }),
+  BOOLEAN(BooleanField::class.java, { p, n, t -> BooleanField<Any?>(p, n, t) }),
+  BINARY(BinaryField::class.java, { p, n, t -> BinaryField<Any?>(p, n, t) }),
+  IP(IpField::class.java, { p, n, t -> IpField<Any?>(p, n, t) }),
+  COMPLETION(CompletionField::class.java, { p, n, t -> CompletionField<Any?>(p, n, t) }),
+  TOKEN_COUNT(TokenCountField::class.java, { p, n, t -> TokenCountField<Any?>(p, n, t) }),
+  PERCOLATOR(PercolatorField::class.java, { p, n, t -> PercolatorField<Any?>(p, n, t) }),
+  RANK_FEATURE(RankFeatureField::class.java, { p, n, t -> RankFeatureField<Any?>(p, n, t) }),
+  RANK_FEATURES(RankFeaturesField::class.java, { p, n, t -> RankFeaturesField<Any?>(p, n, t) }),
+  FLATTENED(FlattenedField::class.java, { p, n, t -> FlattenedField<Any?>(p, n, t) }),
+  SHAPE(ShapeField::class.java, { p, n, t -> ShapeField<Any?>(p, n, t) }),
+  POINT(PointField::class.java, { p, n, t -> PointField<Any?>(p, n, t) }),
+  CONSTANT_KEYWORD(
+    ConstantKeywordField::class.java,
+    { p, n, t -> ConstantKeywordField<Any?>(p, n, t) },
+  ),
+  WILDCARD(WildcardField::class.java, { p, n, t -> WildcardField<Any?>(p, n, t) }),
+  INTEGER_RANGE(IntegerRangeField::class.java, { p, n, t -> IntegerRangeField<Any?>(p, n, t) }),
+  FLOAT_RANGE(FloatRangeField::class.java, { p, n, t -> FloatRangeField<Any?>(p, n, t) }),
+  LONG_RANGE(LongRangeField::class.java, { p, n, t -> LongRangeField<Any?>(p, n, t) }),
+  DOUBLE_RANGE(DoubleRangeField::class.java, { p, n, t -> DoubleRangeField<Any?>(p, n, t) }),
+  DATE_RANGE(DateRangeField::class.java, { p, n, t -> DateRangeField<Any?>(p, n, t) }),
+  IP_RANGE(IpRangeField::class.java, { p, n, t -> IpRangeField<Any?>(p, n, t) }),
+  SEARCH_AS_YOU_TYPE(
+    SearchAsYouTypeField::class.java,
+    { p, n, t -> SearchAsYouTypeField<Any?>(p, n, t) },
+  ),
+  DENSE_VECTOR(DenseVectorField::class.java, { p, n, t -> DenseVectorField<Any?>(p, n, t) }),
+  ALIAS(AliasField::class.java, { p, n, t -> AliasField<Any?>(p, n, t) }),
+  VERSION(VersionField::class.java, { p, n, t -> VersionField<Any?>(p, n, t) }),
+  MURMUR3(Murmur3Field::class.java, { p, n, t -> Murmur3Field<Any?>(p, n, t) }),
+  MATCH_ONLY_TEXT(
+    MatchOnlyTextField::class.java,
+    { p, n, t -> MatchOnlyTextField<Any?>(p, n, t) },
+  ),
+  ANNOTATED_TEXT(
+    AnnotatedTextField::class.java,
+    { p, n, t -> AnnotatedTextField<Any?>(p, n, t) },
+  );
+
+  internal fun create(parent: Container<*>, name: String, fieldType: KType): Field<*> {
+    val factory = checkNotNull(factory) { "$this slots are not materialized from a field table" }
+    return factory(parent, name, fieldType)
+  }
+}
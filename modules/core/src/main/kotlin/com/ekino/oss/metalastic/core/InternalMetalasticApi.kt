@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+/**
+ * Marks the parts of the core API that only exist for the other Metalastic modules, such as the
+ * per-field state the query DSL keeps on metamodels. They may change or disappear in any release,
+ * and using them requires an explicit opt-in.
+ */
+@RequiresOptIn(
+  message = "Internal Metalastic API, which may change without notice",
+  level = RequiresOptIn.Level.ERROR,
+)
+@Target(AnnotationTarget.FUNCTION, AnnotationTarget.PROPERTY, AnnotationTarget.CLASS)
+@Retention(AnnotationRetention.BINARY)
+@MustBeDocumented
+annotation class InternalMetalasticApi
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+import java.lang.reflect.Modifier
+import kotlin.reflect.KClass
+import kotlin.reflect.KType
+import kotlin.reflect.KTypeProjection
+import kotlin.reflect.full.createType
+import kotlin.reflect.typeOf
+
+/**
+ * Returns the [KType] of [T] for a metamodel constructor, deferring kotlin-reflect type
+ * construction when possible.
+ *
+ * For a plain class (no type parameters, not an array) a canonical per-class instance capturing
+ * the class token and nullability is returned, and the actual [KType] is built the first time
+ * [Metamodel.fieldType] is called. Parameterized types and arrays fall back to an eager [typeOf].
+ *
+ * Used by the field helpers of [Container] and by generated metamodels. The returned type is only
+ * equal to the lazy type of the same class and nullability, never to a reflected [KType]: compare
+ * [Metamodel.fieldType], which materializes it, rather than the value returned here.
+ */
+inline fun <reified T : Any?> lazyTypeOf(): KType =
+  LazyKType.of(T::class.java, null is T) ?: typeOf<T>()
+
+/**
+ * A [KType] of a non-parameterized class, materialized on first use.
+ *
+ * [classifier], [arguments] and [isMarkedNullable] are answered from the class token; everything
+ * else delegates to the materialized type. [Metamodel.fieldType] unwraps it, so callers only ever
+ * observe regular kotlin-reflect types.
+ *
+ * Equality only holds between lazy types: a reflected [KType] does not know about this class, so
+ * being equal to one would make `lazy == reflected` true while `reflected == lazy` is false. Being
+ * canonical per class and nullability, two lazy types are equal exactly when they are the same
+ * instance, and neither [equals] nor [hashCode] materializes the type.
+ */
+@PublishedApi
+internal class LazyKType private constructor(
+  private val javaClass: Class<*>,
+  private val nullable: Boolean,
+) : KType {
+
+  // Racy single-check: concurrent materializations produce equal types
+  @Volatile private var materialized: KType? = null
+
+  fun materialize(): KType =
+    materialized ?: javaClass.kotlin.createType(nullable = nullable).also { materialized = it }
+
+  override val classifier: KClass<*>
+    get() = javaClass.kotlin
+
+  override val arguments: List<KTypeProjection>
+    get() = emptyList()
+
+  override val isMarkedNullable: Boolean
+    get() = nullable
+
+  override val annotations: List<Annotation>
+    get() = materialize().annotations
+
+  override fun equals(other: Any?): Boolean = this === other
+
+  override fun hashCode(): Int = System.identityHashCode(this)
+
+  override fun toString(): String = materialize().toString()
+
+  @PublishedApi
+  internal companion object {
+    private val instances =
+      object : ClassValue<Array<LazyKType>?>() {
+        // Inner classes may inherit type arguments from their outer class
+        override fun computeValue(type: Class<*>): Array<LazyKType>? =
+          if (
+            type.typeParameters.isEmpty() &&
+              !type.isArray &&
+              (type.enclosingClass == null || Modifier.isStatic(type.modifiers))
+          ) {
+            arrayOf(LazyKType(type, nullable = false), LazyKType(type, nullable = true))
+          } else {
+            null
+          }
+      }
+
+    /** Returns the shared lazy type of [javaClass], or `null` when it needs type arguments. */
+    fun of(javaClass: Class<*>, nullable: Boolean): LazyKType? =
+      instances.get(javaClass)?.get(if (nullable) 1 else 0)
+  }
+}
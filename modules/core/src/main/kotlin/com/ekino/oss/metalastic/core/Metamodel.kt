@@ -63,19 +63,41 @@ import kotlin.reflect.KType
  *
  * @param T type of property this metamodel represents
  */
-sealed class Metamodel<T : Any?>(private val name: String, private val fieldType: KType) {
-
-  private val path: String by lazy {
-    parents()
-      .filterNot { it.name().isEmpty() }
-      .toList()
-      .reversed()
-      .joinToString(separator = ".") { it.name() }
-      .takeIf { it.isNotEmpty() }
-      ?.let { "$it.$name" } ?: name
+sealed class Metamodel<T : Any?>(private val name: String, fieldType: KType) {
+
+  // Swapped for an equal instance shared across usages of the same container class
+  @Volatile private var fieldType: KType = fieldType
+
+  // Containers above this metamodel, root first, and the nested ones among them. Both arrays
+  // belong to the parent (see attach), so reading them neither walks the tree nor allocates.
+  @Volatile
+  internal var ancestors: Array<Container<*>> = NO_CONTAINERS
+    private set
+
+  @Volatile
+  internal var nestedAncestors: Array<Container<*>> = NO_CONTAINERS
+    private set
+
+  // Racy single-check: concurrent first calls build equal strings, and no Lazy is allocated
+  @Volatile private var path: String? = null
+
+  // Last converter resolved by valueConverter, with the value class it converts
+  @Volatile private var keptConverter: KeptConverter? = null
+
+  /** Links this metamodel to the precomputed lineage of [parent], while it is constructed. */
+  internal open fun attach(parent: Container<*>?) {
+    if (parent != null) {
+      ancestors = parent.lineage
+      nestedAncestors = parent.nestedLineage
+    }
   }
 
-  fun path(): String = path
+  fun path(): String =
+    path
+      ?: run {
+        val prefix = parent()?.pathPrefix().orEmpty()
+        (if (prefix.isEmpty()) name else "$prefix.$name").also { path = it }
+      }
 
   fun name(): String = name
 
@@ -83,18 +105,47 @@ sealed class Metamodel<T : Any?>(private val name: String, private val fieldType
 
   fun parents() = generateSequence(parent()) { it.parent() }
 
-  fun isNestedPath(): Boolean = parents().any { it.isNested() }
+  /** Returns the number of containers above this metamodel, the document included. */
+  fun depth(): Int = ancestors.size
 
+  /** Returns the container [level] steps up: `0` is [parent], `depth() - 1` the root. */
+  fun ancestor(level: Int): Container<*> {
+    require(level in ancestors.indices) { "No ancestor at level $level (depth ${depth()})" }
+    return ancestors[ancestors.size - 1 - level]
+  }
+
+  fun isNestedPath(): Boolean = nestedAncestors.isNotEmpty()
+
+  /** Returns the closest nested container above this metamodel, or `null`. */
+  fun innermostNested(): Container<*>? = nestedAncestors.lastOrNull()
+
+  /** Returns the number of nested containers above this metamodel. */
+  fun nestedDepth(): Int = nestedAncestors.size
+
+  /** Returns the nested container [level] steps up the nested chain: `0` is [innermostNested]. */
+  fun nestedAncestor(level: Int): Container<*> {
+    require(level in nestedAncestors.indices) {
+      "No nested ancestor at level $level (nested depth ${nestedDepth()})"
+    }
+    return nestedAncestors[nestedAncestors.size - 1 - level]
+  }
+
+  /** Returns the paths of the nested containers above this metamodel, innermost first. */
   fun nestedPaths(): Sequence<String> =
-    parents().mapNotNull {
-      if (it.isNested()) {
-        it.path()
-      } else {
-        null
+    (nestedAncestors.size - 1 downTo 0).asSequence().map { nestedAncestors[it].path() }
+
+  fun fieldType(): KType = (fieldType as? LazyKType)?.materialize() ?: fieldType
+
+  internal fun rawFieldType(): KType = fieldType
+
+  internal fun shareFieldType(shared: KType) {
+    // Lazy types are already canonical, and comparing them would materialize them
+    if (shared !== fieldType && shared !is LazyKType && fieldType !is LazyKType) {
+      if (shared == fieldType) {
+        fieldType = shared
       }
     }
-
-  fun fieldType(): KType = fieldType
+  }
 
   /**
    * Returns the KClass for this field's type, or null if the type is not a concrete class (e.g., if
@@ -106,4 +157,25 @@ sealed class Metamodel<T : Any?>(private val name: String, private val fieldType
    */
   @Suppress("UNCHECKED_CAST")
   fun fieldClass(): KClass<out T & Any>? = fieldType.classifier as? KClass<out T & Any>
+
+  /**
+   * Returns the [type] converter [resolve] gives for values of [valueClass], such as the one the
+   * query DSL converts the values of this field with. The last resolved converter is kept by the
+   * metamodel, so values of the same class as the previous ones skip the lookup. Concurrent calls
+   * may both resolve.
+   */
+  @InternalMetalasticApi
+  fun <C : Any> valueConverter(valueClass: Class<*>, type: Class<C>, resolve: (Class<*>) -> C): C {
+    val kept = keptConverter
+    if (kept != null && kept.valueClass === valueClass && type.isInstance(kept.converter)) {
+      return type.cast(kept.converter)
+    }
+    return resolve(valueClass).also { keptConverter = KeptConverter(valueClass, it) }
+  }
+
+  private class KeptConverter(val valueClass: Class<*>, val converter: Any)
+
+  private companion object {
+    val NO_CONTAINERS: Array<Container<*>> = emptyArray()
+  }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+import kotlin.reflect.KClass
+
+/**
+ * Lookup table backing the generated `Metamodels` registry.
+ *
+ * Each [Entry] only carries the index name and source class name as plain strings, and a supplier
+ * for the document metamodel. Lookups by index name or source class are single hash probes, and
+ * only the documents actually resolved get class-loaded and constructed.
+ *
+ * When several documents share an index name, they are probed in registration order.
+ */
+class MetamodelRegistry(entries: List<Entry>) {
+
+  /**
+   * A registered document: [indexName], the binary name of the source class ([Class.getName]),
+   * and a supplier invoked at most once, on first access.
+   */
+  class Entry(val indexName: String, val sourceClassName: String, document: () -> Document<*>) {
+    private val document by lazy(document)
+
+    fun document(): Document<*> = document
+  }
+
+  private val entries: List<Entry> = entries.toList()
+  private val entriesByIndexName: Map<String, List<Entry>> = entries.groupBy { it.indexName }
+  private val entriesBySourceClassName: Map<String, Entry> =
+    entries.associateBy { it.sourceClassName }
+
+  /** Enumerates every registered document, initializing each of them. */
+  fun entries(): Sequence<Document<*>> = entries.asSequence().map { it.document() }
+
+  /** Returns the first document stored in [indexName], or `null`. */
+  fun document(indexName: String): Document<*>? =
+    entriesByIndexName[indexName]?.first()?.document()
+
+  /** Returns the document generated for [sourceClass], or `null`. */
+  @Suppress("UNCHECKED_CAST")
+  fun <T : Any> document(sourceClass: Class<T>): Document<T>? =
+    entriesBySourceClassName[sourceClass.name]?.document() as Document<T>?
+
+  /** Returns the document generated for [sourceClass], or `null`. */
+  fun <T : Any> document(sourceClass: KClass<T>): Document<T>? = document(sourceClass.java)
+
+  /** Resolves an Elasticsearch [path] within the documents stored in [indexName]. */
+  fun metamodel(indexName: String, path: String): Metamodel<*>? =
+    entriesByIndexName[indexName]?.firstNotNullOfOrNull { it.document().metamodelAt(path) }
+}
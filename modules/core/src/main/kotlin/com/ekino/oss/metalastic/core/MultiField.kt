@@ -12,6 +12,7 @@ abstract class MultiField<T : Any?, M : Field<*>>(
 ) : Container<T>(name = mainField.name(), fieldType = fieldType) {
 
   init {
+    attach(parent)
     parent.register(this)
   }
 
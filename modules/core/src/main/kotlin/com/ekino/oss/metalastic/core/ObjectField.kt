@@ -13,6 +13,7 @@ abstract class ObjectField<T : Any?>(
 ) : Container<T>(name, nested, fieldType) {
 
   init {
+    attach(parent)
     parent?.register(this)
   }
 
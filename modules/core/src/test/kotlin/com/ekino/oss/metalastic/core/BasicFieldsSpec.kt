@@ -4,7 +4,9 @@
 package com.ekino.oss.metalastic.core
 
 import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldHaveSize
 import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
 import io.kotest.matchers.types.shouldBeInstanceOf
 import kotlin.reflect.typeOf
 
@@ -73,4 +75,46 @@ class BasicFieldsSpec :
       nestedObj.field1.path() shouldBe "nested.field1"
       nestedObj.field2.path() shouldBe "nested.field2"
     }
+
+    should("expose the same field types as typeOf with helper method initialization") {
+      val index =
+        object : ObjectField<Any>(name = "", fieldType = lazyTypeOf<Any>()) {
+          val name = text<String>("name")
+          val nickname = keyword<String?>("nickname")
+          val age = integer<Int>("age")
+          val tags = keyword<List<String>>("tags")
+          val scores = double<DoubleArray>("scores")
+        }
+
+      index.fieldType() shouldBe typeOf<Any>()
+      index.name.fieldType() shouldBe typeOf<String>()
+      index.nickname.fieldType() shouldBe typeOf<String?>()
+      index.age.fieldType() shouldBe typeOf<Int>()
+      index.tags.fieldType() shouldBe typeOf<List<String>>()
+      index.scores.fieldType() shouldBe typeOf<DoubleArray>()
+
+      index.name.fieldClass() shouldBe String::class
+      index.age.fieldClass() shouldBe Int::class
+    }
+
+    should("compare lazy field types symmetrically with reflected types") {
+      val lazy = lazyTypeOf<String>()
+      val reflected = typeOf<String>()
+
+      lazy shouldBe lazyTypeOf<String>()
+      lazy shouldNotBe lazyTypeOf<String?>()
+      (lazy == reflected) shouldBe (reflected == lazy)
+      setOf(lazy, reflected) shouldHaveSize 2
+    }
+
+    should("carry the declared value of constant keyword fields") {
+      val index =
+        object : ObjectField<Any>(name = "", fieldType = typeOf<Any>()) {
+          val dataset = constantKeyword<String>("dataset", "logs")
+          val tenant = constantKeyword<String>("tenant")
+        }
+
+      index.dataset.value shouldBe "logs"
+      index.tenant.value shouldBe null
+    }
   })
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+import com.sun.management.ThreadMXBean
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.longs.shouldBeLessThan
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import java.lang.management.ManagementFactory
+import java.util.Date
+import kotlin.reflect.typeOf
+import org.springframework.data.elasticsearch.annotations.DateFormat
+
+/**
+ * Tests for compact containers, whose leaf fields are described by a [FieldTable] and created on
+ * first access, mirroring the code generated with `metalastic.compactMetamodels`.
+ */
+class CompactMetamodelSpec :
+  ShouldSpec({
+    should("create leaf fields on first access and keep them resolvable") {
+      val document = CompactProduct()
+
+      document.id shouldBeSameInstanceAs document.id
+      document.fieldBy("id") shouldBeSameInstanceAs document.id
+      document.id.path() shouldBe "id"
+      document.id.parent() shouldBe document
+      document.createdAt.formats shouldBe listOf(DateFormat.date)
+      document.fieldBy("price")?.fieldType() shouldBe typeOf<Double>()
+      document.fieldBy("unknown") shouldBe null
+    }
+
+    should("resolve multi-fields and object fields registered in container slots") {
+      val document = CompactProduct()
+
+      document.fieldBy("title") shouldBeSameInstanceAs document.title.mainField()
+      document.fieldBy("title.keyword") shouldBeSameInstanceAs document.title.keyword
+      document.fieldBy("address.city") shouldBeSameInstanceAs document.address.city
+      document.address.city.path() shouldBe "address.city"
+    }
+
+    should("index the same paths as the eager representation") {
+      CompactProduct().pathIndex().keys.toList() shouldBe
+        EagerProduct().pathIndex().keys.toList()
+    }
+
+    should("allocate less than the eager representation per document") {
+      val threads = ManagementFactory.getThreadMXBean() as ThreadMXBean
+      fun allocatedBy(block: () -> Unit): Long {
+        val before = threads.currentThreadAllocatedBytes
+        block()
+        return threads.currentThreadAllocatedBytes - before
+      }
+      // Warm up class initialization and the shared layouts
+      repeat(10) {
+        EagerProduct().pathIndex()
+        CompactProduct().pathIndex()
+      }
+
+      val eager = allocatedBy { repeat(1_000) { EagerProduct() } }
+      val compact = allocatedBy { repeat(1_000) { CompactProduct() } }
+
+      compact shouldBeLessThan eager
+    }
+  })
+
+private class MetaTitle(parent: ObjectField<*>, name: String) :
+  MultiField<String, TextField<String>>(
+    parent,
+    TextField(parent, name, typeOf<String>()),
+    typeOf<String>(),
+  ) {
+  val keyword = KeywordField<String>(this, "keyword", typeOf<String>())
+}
+
+private class MetaAddress(parent: ObjectField<*>?, name: String) :
+  ObjectField<Any>(parent, name, false, typeOf<Any>()) {
+  val city = KeywordField<String>(this, "city", typeOf<String>())
+}
+
+private class EagerProduct : Document<Any>(fieldType = typeOf<Any>()) {
+  val id = KeywordField<String>(this, "id", typeOf<String>())
+  val name = TextField<String>(this, "name", typeOf<String>())
+  val price = DoubleField<Double>(this, "price", typeOf<Double>())
+  val stock = IntegerField<Int>(this, "stock", typeOf<Int>())
+  val active = BooleanField<Boolean>(this, "active", typeOf<Boolean>())
+  val createdAt = DateField<Date>(this, "createdAt", typeOf<Date>(), listOf(DateFormat.date))
+  val title = MetaTitle(this, "title")
+  val address = MetaAddress(this, "address")
+
+  override fun indexName() = "products"
+}
+
+private class CompactProduct : Document<Any>(fieldType = typeOf<Any>()) {
+  init {
+    compact(FIELD_TABLE)
+  }
+
+  val id: KeywordField<String>
+    get() = compactField(0)
+
+  val createdAt: DateField<Date>
+    get() = compactField(5)
+
+  val title = MetaTitle(this, "title")
+  val address = MetaAddress(this, "address")
+
+  override fun indexName() = "products"
+
+  companion object {
+    private val FIELD_TABLE =
+      FieldTable(
+        names = arrayOf("id", "name", "price", "stock", "active", "createdAt", "title", "address"),
+        kinds =
+          arrayOf(
+            FieldKind.KEYWORD,
+            FieldKind.TEXT,
+            FieldKind.DOUBLE,
+            FieldKind.INTEGER,
+            FieldKind.BOOLEAN,
+            FieldKind.DATE,
+            FieldKind.CONTAINER,
+            FieldKind.CONTAINER,
+          ),
+        fieldTypes =
+          arrayOf(
+            typeOf<String>(),
+            typeOf<String>(),
+            typeOf<Double>(),
+            typeOf<Int>(),
+            typeOf<Boolean>(),
+            typeOf<Date>(),
+            null,
+            null,
+          ),
+        dateFormats = arrayOf(null, null, null, null, null, listOf(DateFormat.date), null, null),
+      )
+  }
+}
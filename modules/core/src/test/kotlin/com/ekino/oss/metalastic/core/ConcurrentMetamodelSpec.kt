@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.core
+
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.collections.shouldHaveSize
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.reflect.typeOf
+
+/**
+ * Stress tests for metamodels shared between threads: parallel construction, and concurrent first
+ * reads racing on freezing, lazy objects and compact slots.
+ */
+class ConcurrentMetamodelSpec :
+  ShouldSpec({
+    should("construct and traverse documents in parallel") {
+      val expected = SharedShop().pathIndex().mapValues { it.value.path() }
+
+      race { SharedShop() }
+        .forEach { shop ->
+          shop.pathIndex().mapValues { it.value.path() } shouldBe expected
+          shop.fieldBy("owner.address.city") shouldBeSameInstanceAs shop.owner.address.city
+          shop.owner.address.city.ancestor(0) shouldBeSameInstanceAs shop.owner.address
+        }
+    }
+
+    should("resolve the same children when first reads race on a shared instance") {
+      repeat(ROUNDS) {
+        val shop = SharedShop()
+
+        val resolved = race {
+          listOf(
+            shop.fieldBy("owner.address.city"),
+            shop.fieldBy("shipping.city"),
+            shop.pathIndex()["billing.city"],
+            shop.fieldBy("name"),
+          )
+        }
+
+        resolved.forEach { children ->
+          children.forEach { it shouldNotBe null }
+          children shouldBe resolved.first()
+          children.zip(resolved.first()).forEach { (a, b) -> a shouldBeSameInstanceAs b }
+        }
+        shop.shipping.city.path() shouldBe "shipping.city"
+      }
+    }
+
+    should("materialize each compact slot once when first accesses race") {
+      repeat(ROUNDS) {
+        val shop = CompactShop()
+
+        val resolved = race { listOf(shop.name, shop.fieldBy("sku"), shop.pathIndex()["name"]) }
+
+        resolved.forEach { children ->
+          children[0] shouldBeSameInstanceAs shop.name
+          children[1] shouldBeSameInstanceAs shop.fieldBy("sku")
+          children[2] shouldBeSameInstanceAs shop.name
+        }
+      }
+    }
+
+    should("keep late registrations visible to concurrent readers") {
+      val shop = SharedShop()
+      shop.pathIndex()
+
+      race { thread ->
+        val extra = SharedAddress(shop, "extra$thread")
+        shop.fieldBy("owner.address.city") shouldBeSameInstanceAs shop.owner.address.city
+        shop.fieldBy("extra$thread.city") shouldBeSameInstanceAs extra.city
+      }
+
+      (0 until THREADS).map { shop.fieldBy("extra$it") }.filterNotNull() shouldHaveSize THREADS
+    }
+
+    should("keep many late registrations in order and reachable") {
+      val shop = SharedShop()
+      val before = shop.children()
+
+      val extras = (0 until LATE_REGISTRATIONS).map { SharedAddress(shop, "late$it") }
+
+      shop.children() shouldBe before + extras
+      extras.forEachIndexed { index, extra ->
+        shop.fieldBy("late$index.city") shouldBeSameInstanceAs extra.city
+      }
+      shop.fieldBy("owner.address.city") shouldBeSameInstanceAs shop.owner.address.city
+      shop.fieldBy("late$LATE_REGISTRATIONS") shouldBe null
+    }
+  })
+
+private const val THREADS = 8
+private const val ROUNDS = 200
+private const val LATE_REGISTRATIONS = 100
+
+/** Runs [block] on [THREADS] threads released together, and returns their results in order. */
+private fun <R> race(block: (Int) -> R): List<R> {
+  val executor = Executors.newFixedThreadPool(THREADS)
+  try {
+    val start = CountDownLatch(1)
+    val results =
+      (0 until THREADS).map { thread ->
+        executor.submit<R> {
+          start.await()
+          block(thread)
+        }
+      }
+    start.countDown()
+    return results.map { it.get(30, TimeUnit.SECONDS) }
+  } finally {
+    executor.shutdownNow()
+  }
+}
+
+private class SharedAddress(parent: ObjectField<*>?, name: String) :
+  ObjectField<Any>(parent, name, false, typeOf<Any>()) {
+  val city = KeywordField<String>(this, "city", typeOf<String>())
+  val zipCode = KeywordField<String>(this, "zipCode", typeOf<String>())
+}
+
+private class SharedOwner(parent: ObjectField<*>?, name: String) :
+  ObjectField<Any>(parent, name, true, typeOf<Any>()) {
+  val name = TextField<String>(this, "name", typeOf<String>())
+  val address = SharedAddress(this, "address")
+}
+
+private class SharedShop : Document<Any>(fieldType = typeOf<Any>()) {
+  val name = TextField<String>(this, "name", typeOf<String>())
+  val owner = SharedOwner(this, "owner")
+  val shipping = SharedAddress(this, "shipping")
+  val billing: SharedAddress by lazyObject("billing") { SharedAddress(this, "billing") }
+
+  override fun indexName() = "shops"
+}
+
+private class CompactShop : Document<Any>(fieldType = typeOf<Any>()) {
+  init {
+    compact(FIELD_TABLE)
+  }
+
+  val name: TextField<String>
+    get() = compactField(0)
+
+  val address = SharedAddress(this, "address")
+
+  override fun indexName() = "shops"
+
+  companion object {
+    private val FIELD_TABLE =
+      FieldTable(
+        names = arrayOf("name", "sku", "address"),
+        kinds = arrayOf(FieldKind.TEXT, FieldKind.KEYWORD, FieldKind.CONTAINER),
+        fieldTypes = arrayOf(typeOf<String>(), typeOf<String>(), null),
+      )
+  }
+}
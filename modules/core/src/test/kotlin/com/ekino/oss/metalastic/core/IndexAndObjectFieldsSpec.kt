@@ -6,8 +6,10 @@ package com.ekino.oss.metalastic.core
 import io.kotest.core.spec.style.ShouldSpec
 import io.kotest.matchers.shouldBe
 import io.kotest.matchers.types.shouldBeInstanceOf
+import io.kotest.matchers.types.shouldBeSameInstanceAs
 import java.util.Date
 import kotlin.reflect.typeOf
+import org.springframework.data.elasticsearch.annotations.DateFormat
 
 /**
  * Comprehensive test suite for Index and ObjectFields functionality. Tests index creation, object
@@ -319,4 +321,234 @@ class IndexAndObjectFieldsSpec :
       index.typed.listField.shouldBeInstanceOf<KeywordField<List<String>>>()
       index.typed.mapField.shouldBeInstanceOf<FlattenedField<Short>>()
     }
+
+    should("resolve fields by dotted path") {
+      class AddressFields(parent: ObjectField<*>?, path: String, nested: Boolean = false) :
+        ObjectField<Any>(parent, path, nested, typeOf<Any>()) {
+        val city = TextField<String>(this, "city", typeOf<String>())
+      }
+
+      class TitleField(parent: ObjectField<*>, name: String) :
+        MultiField<String, TextField<String>>(
+          parent,
+          TextField(parent, name, typeOf<String>()),
+          typeOf<String>(),
+        ) {
+        val keyword = KeywordField<String>(this, "keyword", typeOf<String>())
+      }
+
+      val index =
+        object : ObjectField<Any>(name = "", fieldType = typeOf<Any>()) {
+          val id = KeywordField<String>(this, "id", typeOf<String>())
+          val address = AddressFields(this, "address")
+          val title = TitleField(this, "title")
+        }
+
+      index.fieldBy("id") shouldBe index.id
+      index.fieldBy("address") shouldBe index.address
+      index.fieldBy("address.city") shouldBe index.address.city
+      index.fieldBy("title") shouldBe index.title.mainField()
+      index.fieldBy("title.keyword") shouldBe index.title.keyword
+      index.fieldBy("sort=address.city;", 5, 17) shouldBe index.address.city
+
+      index.fieldBy("") shouldBe null
+      index.fieldBy("unknown") shouldBe null
+      index.fieldBy("id.unknown") shouldBe null
+      index.fieldBy("address.") shouldBe null
+    }
+
+    should("index every document path, including multi-field inner fields") {
+      class TitleField(parent: ObjectField<*>, name: String) :
+        MultiField<String, TextField<String>>(
+          parent,
+          TextField(parent, name, typeOf<String>()),
+          typeOf<String>(),
+        ) {
+        val keyword = KeywordField<String>(this, "keyword", typeOf<String>())
+      }
+
+      class AddressFields(parent: ObjectField<*>?, path: String, nested: Boolean = false) :
+        ObjectField<Any>(parent, path, nested, typeOf<Any>()) {
+        val city = TextField<String>(this, "city", typeOf<String>())
+      }
+
+      val document =
+        object : Document<Any>(fieldType = typeOf<Any>()) {
+          val title = TitleField(this, "title")
+          val address = AddressFields(this, "address")
+
+          override fun indexName() = "products"
+        }
+
+      document.pathIndex().keys.toList() shouldBe
+        listOf("title", "title.keyword", "address", "address.city")
+      document.metamodelAt("title") shouldBe document.title.mainField()
+      document.metamodelAt("title.keyword") shouldBe document.title.keyword
+      document.metamodelAt("address.city") shouldBe document.address.city
+      document.metamodelAt("unknown") shouldBe null
+
+      val registry =
+        MetamodelRegistry(
+          listOf(MetamodelRegistry.Entry("products", "com.example.Product") { document })
+        )
+      registry.document("products") shouldBe document
+      registry.metamodel("products", "title.keyword") shouldBe document.title.keyword
+      registry.metamodel("products", "unknown") shouldBe null
+      registry.metamodel("unknown", "title") shouldBe null
+    }
+
+    should("initialize registry entries only when they are looked up") {
+      var initialized = 0
+      fun entry(indexName: String, sourceClass: Class<*>) =
+        MetamodelRegistry.Entry(indexName, sourceClass.name) {
+          initialized++
+          object : Document<Any>(fieldType = typeOf<Any>()) {
+            override fun indexName() = indexName
+          }
+        }
+
+      val registry =
+        MetamodelRegistry(
+          listOf(entry("products", String::class.java), entry("orders", Date::class.java))
+        )
+      initialized shouldBe 0
+
+      registry.document("products")?.indexName() shouldBe "products"
+      registry.document(String::class)?.indexName() shouldBe "products"
+      initialized shouldBe 1
+
+      registry.document(Int::class) shouldBe null
+      registry.entries().map { it.indexName() }.toList() shouldBe listOf("products", "orders")
+      initialized shouldBe 2
+    }
+
+    should("construct lazy object fields on first access while keeping them resolvable") {
+      var constructed = 0
+      class AddressFields(parent: ObjectField<*>?, path: String, nested: Boolean = false) :
+        ObjectField<Any>(parent, path, nested, typeOf<Any>()) {
+        init {
+          constructed++
+        }
+
+        val city = TextField<String>(this, "city", typeOf<String>())
+      }
+
+      class ProductDocument : Document<Any>(fieldType = typeOf<Any>()) {
+        val id = KeywordField<String>(this, "id", typeOf<String>())
+        val address: AddressFields by lazyObject("address") { AddressFields(this, "address") }
+        val name = TextField<String>(this, "name", typeOf<String>())
+
+        override fun indexName() = "products"
+      }
+
+      val document = ProductDocument()
+      constructed shouldBe 0
+
+      document.fieldBy("address.city") shouldBe document.address.city
+      document.address.city.path() shouldBe "address.city"
+      constructed shouldBe 1
+
+      val other = ProductDocument()
+      other.pathIndex().keys.toList() shouldBe listOf("id", "address", "address.city", "name")
+      other.address.parent() shouldBe other
+      constructed shouldBe 2
+    }
+
+    should("share the structure of object fields used at several paths") {
+      class AddressFields(parent: ObjectField<*>?, path: String) :
+        ObjectField<Any>(parent, path, false, typeOf<Any>()) {
+        val city = TextField<String>(this, "city", typeOf<String>())
+        val tags = KeywordField<List<String>>(this, "tags", typeOf<List<String>>())
+        val since =
+          DateField<Date>(
+            this,
+            "since",
+            typeOf<Date>(),
+            listOf(DateFormat.date, DateFormat.basic_date),
+          )
+      }
+
+      class CustomerDocument : Document<Any>(fieldType = typeOf<Any>()) {
+        val home = AddressFields(this, "home")
+        val work = AddressFields(this, "work")
+
+        override fun indexName() = "customers"
+      }
+
+      val document = CustomerDocument()
+      val other = CustomerDocument()
+      document.pathIndex()
+      other.pathIndex()
+
+      document.work.tags.fieldType() shouldBeSameInstanceAs document.home.tags.fieldType()
+      other.home.tags.fieldType() shouldBeSameInstanceAs document.home.tags.fieldType()
+      document.work.since.formats shouldBeSameInstanceAs document.home.since.formats
+      other.work.since.formats shouldBeSameInstanceAs document.home.since.formats
+      other.work.since.formats shouldBe listOf(DateFormat.date, DateFormat.basic_date)
+
+      other.fieldBy("work.city") shouldBe other.work.city
+      other.work.city.path() shouldBe "work.city"
+      other.work.city.parent() shouldBe other.work
+      document.home.since.path() shouldBe "home.since"
+    }
+
+    should("expose precomputed ancestors and nested containers") {
+      class TagFields(parent: ObjectField<*>?, path: String, nested: Boolean) :
+        ObjectField<Any>(parent, path, nested, typeOf<Any>()) {
+        val label = KeywordField<String>(this, "label", typeOf<String>())
+      }
+
+      class VariantFields(parent: ObjectField<*>?, path: String) :
+        ObjectField<Any>(parent, path, true, typeOf<Any>()) {
+        val tags = TagFields(this, "tags", true)
+        val details = TagFields(this, "details", false)
+      }
+
+      class CatalogDocument : Document<Any>(fieldType = typeOf<Any>()) {
+        val variants = VariantFields(this, "variants")
+        val sku = KeywordField<String>(this, "sku", typeOf<String>())
+
+        override fun indexName() = "catalog"
+      }
+
+      val document = CatalogDocument()
+      val label = document.variants.tags.label
+
+      label.depth() shouldBe 3
+      label.ancestor(0) shouldBe document.variants.tags
+      label.ancestor(2) shouldBe document
+      label.innermostNested() shouldBe document.variants.tags
+      label.nestedDepth() shouldBe 2
+      label.nestedAncestor(1) shouldBe document.variants
+      label.nestedPaths().toList() shouldBe listOf("variants.tags", "variants")
+
+      document.variants.details.label.innermostNested() shouldBe document.variants
+      document.variants.details.label.path() shouldBe "variants.details.label"
+      document.sku.depth() shouldBe 1
+      document.sku.isNestedPath() shouldBe false
+      document.sku.innermostNested() shouldBe null
+      document.depth() shouldBe 0
+    }
+
+    should("assign dense field ids in path index order") {
+      class AddressFields(parent: ObjectField<*>?, path: String) :
+        ObjectField<Any>(parent, path, false, typeOf<Any>()) {
+        val city = TextField<String>(this, "city", typeOf<String>())
+      }
+
+      class CustomerDocument : Document<Any>(fieldType = typeOf<Any>()) {
+        val id = KeywordField<String>(this, "id", typeOf<String>())
+        val address = AddressFields(this, "address")
+
+        override fun indexName() = "customers"
+      }
+
+      val document = CustomerDocument()
+
+      document.fieldCount() shouldBe 3
+      document.pathIndex().keys.map { document.fieldId(it) } shouldBe listOf(0, 1, 2)
+      document.fieldId(document.address.city) shouldBe 2
+      document.fieldById(1) shouldBe document.address
+      document.fieldId("unknown") shouldBe -1
+    }
   })
@@ -8,10 +8,41 @@ import co.elastic.clients.elasticsearch._types.query_dsl.Query
 
 /**
  * Creates a BoolQueryDsl context for building
- * [bool queries](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-bool-query)
+ * [bool queries](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-bool-query),
+ * with the given [options]
  */
-fun BoolQuery.Builder.boolQueryDsl(block: BoolQueryDsl.() -> Unit) = apply {
-  BoolQueryDsl(this).apply(block)
+inline fun BoolQuery.Builder.boolQueryDsl(
+  options: QueryDslOptions = QueryDslOptions.DEFAULT,
+  block: BoolQueryDsl.() -> Unit,
+) = boolQueryDsl(options, null, block)
+
+/** Non-inline [boolQueryDsl] of 1.2.9, kept for code compiled against it. */
+@Deprecated("Binary compatibility only", level = DeprecationLevel.HIDDEN)
+fun BoolQuery.Builder.boolQueryDsl(block: BoolQueryDsl.() -> Unit) =
+  boolQueryDsl(QueryDslOptions.DEFAULT, null, block)
+
+/** [boolQueryDsl] recording the fingerprint of each clause in [fingerprints] as it is added. */
+@PublishedApi
+internal inline fun BoolQuery.Builder.boolQueryDsl(
+  options: QueryDslOptions,
+  fingerprints: FingerprintRecorder?,
+  block: BoolQueryDsl.() -> Unit,
+) = apply {
+  val target = if (options.rewritesBuiltQuery) BoolQuery.Builder() else this
+  BoolQueryDsl(target, options, fingerprints).block()
+  if (target !== this) {
+    addClausesOf(options.rewrite(target.build()))
+  }
+}
+
+/** Adds the clauses and `minimum_should_match` of [bool], the only parts [BoolQueryDsl] sets. */
+@PublishedApi
+internal fun BoolQuery.Builder.addClausesOf(bool: BoolQuery) {
+  bool.must().takeIf { it.isNotEmpty() }?.also { must(it) }
+  bool.filter().takeIf { it.isNotEmpty() }?.also { filter(it) }
+  bool.should().takeIf { it.isNotEmpty() }?.also { should(it) }
+  bool.mustNot().takeIf { it.isNotEmpty() }?.also { mustNot(it) }
+  bool.minimumShouldMatch()?.also { minimumShouldMatch(it) }
 }
 
 /**
@@ -75,12 +106,28 @@ fun BoolQuery.Builder.boolQueryDsl(block: BoolQueryDsl.() -> Unit) = apply {
  * }
  * ```
  *
+ * ## Allocations
+ *
+ * The occurrence functions are inline and the [QueryVariantDsl] of each occurrence is created once
+ * per bool query, so adding blocks of clauses allocates no lambda nor DSL object: building a query
+ * mostly allocates the client query objects themselves.
+ *
  * @see com.ekino.oss.metalastic.elasticsearch.dsl.QueryVariantDsl for available query types
  * @see
  *   [Boolean query documentation](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-bool-query)
  */
 @ElasticsearchDsl
-class BoolQueryDsl(private val builder: BoolQuery.Builder) {
+class BoolQueryDsl
+@PublishedApi
+internal constructor(
+  private val builder: BoolQuery.Builder,
+  private val options: QueryDslOptions,
+  private val fingerprints: FingerprintRecorder?,
+) {
+
+  constructor(builder: BoolQuery.Builder, options: QueryDslOptions) : this(builder, options, null)
+
+  constructor(builder: BoolQuery.Builder) : this(builder, QueryDslOptions.DEFAULT)
 
   data object Must
 
@@ -95,6 +142,46 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
   val should = Should
   val filter = Filter
 
+  private var mustVariants: QueryVariantDsl? = null
+  private var mustNotVariants: QueryVariantDsl? = null
+  private var shouldVariants: QueryVariantDsl? = null
+  private var filterVariants: QueryVariantDsl? = null
+
+  /** The DSL adding queries to the `must` occurrence, shared by all its blocks. */
+  @PublishedApi
+  internal fun mustVariants(): QueryVariantDsl =
+    mustVariants ?: occurrence { builder.must(it) }.also { mustVariants = it }
+
+  /** The DSL adding queries to the `must_not` occurrence, shared by all its blocks. */
+  @PublishedApi
+  internal fun mustNotVariants(): QueryVariantDsl =
+    mustNotVariants ?: occurrence { builder.mustNot(it) }.also { mustNotVariants = it }
+
+  /** The DSL adding queries to the `should` occurrence, shared by all its blocks. */
+  @PublishedApi
+  internal fun shouldVariants(): QueryVariantDsl =
+    shouldVariants ?: occurrence { builder.should(it) }.also { shouldVariants = it }
+
+  /** The DSL adding queries to the `filter` occurrence, shared by all its blocks. */
+  @PublishedApi
+  internal fun filterVariants(): QueryVariantDsl =
+    filterVariants ?: occurrence { builder.filter(it) }.also { filterVariants = it }
+
+  /** Creates the DSL of an occurrence, fingerprinting each query before [addQuery] adds it. */
+  private fun occurrence(addQuery: (Query) -> Unit): QueryVariantDsl =
+    QueryVariantDsl(
+      options,
+      { variant ->
+        fingerprints?.record(variant)
+        addQuery(Query(variant))
+      },
+      { query ->
+        fingerprints?.record(query._get())
+        addQuery(query)
+      },
+      fingerprints,
+    )
+
   /**
    * Adds queries to the `must` occurrence.
    *
@@ -117,8 +204,8 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see QueryVariantDsl for available query types
    */
-  fun mustDsl(block: QueryVariantDsl.() -> Unit) {
-    QueryVariantDsl({ query -> builder.must(Query(query)) }).apply(block)
+  inline fun mustDsl(block: QueryVariantDsl.() -> Unit) {
+    mustVariants().block()
   }
 
   /**
@@ -144,8 +231,8 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see QueryVariantDsl for available query types
    */
-  fun mustNotDsl(block: QueryVariantDsl.() -> Unit) {
-    QueryVariantDsl({ query -> builder.mustNot(Query(query)) }).apply(block)
+  inline fun mustNotDsl(block: QueryVariantDsl.() -> Unit) {
+    mustNotVariants().block()
   }
 
   /**
@@ -171,8 +258,8 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see QueryVariantDsl for available query types
    */
-  fun shouldDsl(block: QueryVariantDsl.() -> Unit) {
-    QueryVariantDsl({ query -> builder.should(Query(query)) }).apply(block)
+  inline fun shouldDsl(block: QueryVariantDsl.() -> Unit) {
+    shouldVariants().block()
   }
 
   /**
@@ -198,8 +285,8 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see QueryVariantDsl for available query types
    */
-  fun filterDsl(block: QueryVariantDsl.() -> Unit) {
-    QueryVariantDsl({ query -> builder.filter(Query(query)) }).apply(block)
+  inline fun filterDsl(block: QueryVariantDsl.() -> Unit) {
+    filterVariants().block()
   }
 
   /**
@@ -224,7 +311,7 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see mustDsl
    */
-  operator fun Must.plus(block: QueryVariantDsl.() -> Unit) = mustDsl(block)
+  inline operator fun Must.plus(block: QueryVariantDsl.() -> Unit) = mustDsl(block)
 
   /**
    * Operator syntax for adding queries to the `must_not` occurrence.
@@ -247,7 +334,7 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see mustNotDsl
    */
-  operator fun MustNot.plus(block: QueryVariantDsl.() -> Unit) = mustNotDsl(block)
+  inline operator fun MustNot.plus(block: QueryVariantDsl.() -> Unit) = mustNotDsl(block)
 
   /**
    * Operator syntax for adding queries to the `should` occurrence.
@@ -270,7 +357,7 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see shouldDsl
    */
-  operator fun Should.plus(block: QueryVariantDsl.() -> Unit) = shouldDsl(block)
+  inline operator fun Should.plus(block: QueryVariantDsl.() -> Unit) = shouldDsl(block)
 
   /**
    * Operator syntax for adding queries to the `filter` occurrence.
@@ -293,7 +380,7 @@ class BoolQueryDsl(private val builder: BoolQuery.Builder) {
    *
    * @see filterDsl
    */
-  operator fun Filter.plus(block: QueryVariantDsl.() -> Unit) = filterDsl(block)
+  inline operator fun Filter.plus(block: QueryVariantDsl.() -> Unit) = filterDsl(block)
 
   /**
    * Sets the `minimum_should_match` parameter on the underlying [BoolQuery.Builder].
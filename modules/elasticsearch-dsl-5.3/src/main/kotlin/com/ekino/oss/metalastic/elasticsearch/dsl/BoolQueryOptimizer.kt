@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.FieldValue
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import co.elastic.clients.elasticsearch._types.query_dsl.TermQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery
+import co.elastic.clients.json.JsonData
+import co.elastic.clients.json.JsonpSerializable
+import co.elastic.clients.json.SimpleJsonpMapper
+import com.ekino.oss.metalastic.core.ByteField
+import com.ekino.oss.metalastic.core.Container
+import com.ekino.oss.metalastic.core.DateField
+import com.ekino.oss.metalastic.core.DateNanosField
+import com.ekino.oss.metalastic.core.Document
+import com.ekino.oss.metalastic.core.DoubleField
+import com.ekino.oss.metalastic.core.FloatField
+import com.ekino.oss.metalastic.core.HalfFloatField
+import com.ekino.oss.metalastic.core.IntegerField
+import com.ekino.oss.metalastic.core.LongField
+import com.ekino.oss.metalastic.core.Metamodel
+import com.ekino.oss.metalastic.core.ScaledFloatField
+import com.ekino.oss.metalastic.core.ShortField
+import java.io.StringWriter
+import java.math.BigDecimal
+
+/**
+ * Optimizes a built [BoolQuery] with a [BoolQueryOptimizer].
+ *
+ * ```kotlin
+ * val query = BoolQuery.of { it.boolQueryDsl { ... } }.optimize(Metamodels.product)
+ * ```
+ *
+ * @see BoolQueryOptimizer
+ */
+fun BoolQuery.optimize(
+  document: Document<*>? = null,
+  scoring: Boolean = true,
+  options: QueryDslOptions = QueryDslOptions.DEFAULT,
+): Query = BoolQueryOptimizer(document, options).optimize(this, scoring)
+
+/**
+ * Simplifies built bool queries without changing the documents they match.
+ *
+ * Composed filters often end up as bools nested several levels deep, holding duplicate or single
+ * clauses. The optimizer rewrites the tree bottom-up:
+ * - a nested bool is flattened into its parent when their occurrences are compatible (`must` and
+ *   `filter` children of a `must` or `filter` clause, `should`-only children of a `should` or
+ *   `must_not` clause)
+ * - duplicate clauses of an occurrence are removed
+ * - a bool holding a single clause is replaced by that clause
+ * - sibling `term`/`terms` queries on the same field in `should` are merged into one `terms` query
+ * - `range` queries on the same single-valued field in `filter` are intersected into one
+ *
+ * Rewrites that would change relevance scores (removing a scoring duplicate, merging scoring
+ * `term` queries, unwrapping a `filter`) are only applied in filter context: below a `filter` or
+ * `must_not` clause, or everywhere when optimizing with `scoring = false`. Sibling `term` queries
+ * in `filter` are never merged, as a document matching all of them may hold several values. Bool
+ * queries with a `boost`, a `_name` or a `minimum_should_match` keep their own clauses, and their
+ * children are still optimized.
+ *
+ * @param document document the query targets. Ranges are only intersected for fields it resolves
+ *   to a single-valued numeric or date field: on a multi-valued field, two ranges may match
+ *   different values of the same document, and the bounds of other fields compare as strings.
+ * @param options limits of the merged terms queries
+ */
+class BoolQueryOptimizer(
+  private val document: Document<*>? = null,
+  private val options: QueryDslOptions = QueryDslOptions.DEFAULT,
+) {
+
+  /**
+   * Returns the optimized form of [query], which is not necessarily a bool query.
+   *
+   * @param scoring whether [query] runs in query context. Pass `false` for queries used as a filter
+   *   or a post filter.
+   */
+  fun optimize(query: BoolQuery, scoring: Boolean = true): Query = optimizeBool(query, scoring)
+
+  /** Returns the optimized form of [query], which is returned as is unless it is a bool query. */
+  fun optimize(query: Query, scoring: Boolean = true): Query =
+    if (query.isBool) optimizeBool(query.bool(), scoring) else query
+
+  private fun optimizeBool(bool: BoolQuery, scoring: Boolean): Query {
+    val clauses = Clauses(flattenShould = bool.minimumShouldMatch() == null)
+    bool.must().forEach { clauses.add(Occurrence.MUST, optimize(it, scoring)) }
+    bool.filter().forEach { clauses.add(Occurrence.FILTER, optimize(it, false)) }
+    bool.should().forEach { clauses.add(Occurrence.SHOULD, optimize(it, scoring)) }
+    bool.mustNot().forEach { clauses.add(Occurrence.MUST_NOT, optimize(it, false)) }
+
+    val must = if (scoring) clauses.must else clauses.must.distinctClauses()
+    val filter = intersectRanges(clauses.filter.distinctClauses())
+    val should =
+      if (scoring || !clauses.flattenShould) clauses.should
+      else mergeTerms(clauses.should.distinctClauses())
+    val mustNot = clauses.mustNot.distinctClauses()
+
+    val single =
+      when {
+        !bool.isPlain() || must.size + filter.size + should.size + mustNot.size != 1 -> null
+        must.isNotEmpty() -> must.single()
+        should.isNotEmpty() -> should.single()
+        filter.isNotEmpty() && !scoring -> filter.single()
+        else -> null
+      }
+    return single ?: Query(bool.withClauses(must, filter, should, mustNot))
+  }
+
+  /** Merges `term` and value `terms` queries on the same field into one query per field. */
+  private fun mergeTerms(should: List<Query>): List<Query> {
+    val termValues = should.map { it.termValues() }
+    val merged =
+      termValues
+        .filterNotNull()
+        .groupBy({ it.first }, { it.second })
+        .filterValues { it.size > 1 }
+        .mapValues { (_, values) -> values.flatten().distinctBy { it._kind() to it._get() } }
+        .filterValues { it.size <= options.maxTermsPerQuery }
+    if (merged.isEmpty()) return should
+
+    val emitted = mutableSetOf<String>()
+    return should.indices.mapNotNull { index ->
+      val field = termValues[index]?.first?.takeIf { it in merged }
+      when {
+        field == null -> should[index]
+        emitted.add(field) -> merged.getValue(field).toTermQuery(field)
+        else -> null
+      }
+    }
+  }
+
+  /** Intersects the ranges on the same single-valued numeric field into one query per field. */
+  private fun intersectRanges(filter: List<Query>): List<Query> {
+    if (document == null || filter.count { it.isRange } < 2) return filter
+
+    val rangeBounds =
+      filter.map { query -> query.rangeBounds()?.takeIf { isIntersectable(it.field) } }
+    val merged =
+      rangeBounds
+        .filterNotNull()
+        .groupBy { it.field }
+        .filterValues { it.size > 1 }
+        .mapNotNull { (field, bounds) ->
+          bounds
+            .reduce<RangeBounds?, RangeBounds> { acc, next -> acc?.intersect(next) }
+            ?.let { field to it }
+        }
+        .toMap()
+    if (merged.isEmpty()) return filter
+
+    val emitted = mutableSetOf<String>()
+    return filter.indices.mapNotNull { index ->
+      val field = rangeBounds[index]?.field?.takeIf { it in merged }
+      when {
+        field == null -> filter[index]
+        emitted.add(field) -> Query(merged.getValue(field).toRangeQuery())
+        else -> null
+      }
+    }
+  }
+
+  /**
+   * Returns whether ranges on [field] can be intersected: its values must compare as numbers, and
+   * it must hold at most one value per document, or per nested object when it belongs to a nested
+   * container.
+   */
+  private fun isIntersectable(field: String): Boolean {
+    val metamodel = document?.metamodelAt(field) ?: return false
+    if (!metamodel.hasNumericBounds()) return false
+    return (sequenceOf<Metamodel<*>>(metamodel) + metamodel.parents())
+      .filterNot { it.parent() == null || (it is Container<*> && it.isNested()) }
+      .none { it.isMultiValued() }
+  }
+}
+
+/** Bounds of a range query, in the form shared by every elasticsearch-java version. */
+internal data class RangeBounds(
+  val field: String,
+  val gt: JsonData?,
+  val gte: JsonData?,
+  val lt: JsonData?,
+  val lte: JsonData?,
+  val format: String?,
+)
+
+internal enum class Occurrence {
+  MUST,
+  FILTER,
+  SHOULD,
+  MUST_NOT,
+}
+
+/**
+ * Optimized clauses of a bool query, into which plain child bools are flattened.
+ *
+ * [flattenShould] tells whether the bool query counts its `should` matches with the default
+ * `minimum_should_match`, so that `should`-only children can join its own `should` clauses.
+ */
+private class Clauses(val flattenShould: Boolean) {
+  val must = mutableListOf<Query>()
+  val filter = mutableListOf<Query>()
+  val should = mutableListOf<Query>()
+  val mustNot = mutableListOf<Query>()
+
+  fun add(occurrence: Occurrence, query: Query) {
+    val child = query.takeIf { it.isBool }?.bool()?.takeIf { it.isPlain() }
+    val occurrenceClauses =
+      when (occurrence) {
+        Occurrence.MUST -> must
+        Occurrence.FILTER -> filter
+        Occurrence.SHOULD -> should
+        Occurrence.MUST_NOT -> mustNot
+      }
+    when {
+      child == null -> occurrenceClauses += query
+      // Keeping a must or filter clause keeps the optional status of the parent should clauses
+      (occurrence == Occurrence.MUST || occurrence == Occurrence.FILTER) &&
+        child.should().isEmpty() &&
+        (child.must().isNotEmpty() || child.filter().isNotEmpty()) -> {
+        occurrenceClauses += child.must()
+        filter += child.filter()
+        mustNot += child.mustNot()
+      }
+      (occurrence == Occurrence.SHOULD && flattenShould || occurrence == Occurrence.MUST_NOT) &&
+        child.isShouldOnly() -> occurrenceClauses += child.should()
+      else -> occurrenceClauses += query
+    }
+  }
+}
+
+/** A lower or upper range bound, [value] being `null` when the range has none. */
+private class Bound(val value: JsonData?, val exclusive: Boolean) {
+  val text: String? = value?.toJson(KEY_MAPPER)?.toString()
+  val number: BigDecimal? = text?.toBigDecimalOrNull()
+
+  companion object {
+    val NONE = Bound(null, false)
+    val INCOMPARABLE = Bound(null, false)
+  }
+}
+
+private val KEY_MAPPER = SimpleJsonpMapper()
+
+/** Returns a copy of this bool query holding the given clauses instead of its own. */
+internal fun BoolQuery.withClauses(
+  must: List<Query>,
+  filter: List<Query>,
+  should: List<Query>,
+  mustNot: List<Query>,
+): BoolQuery = BoolQuery.of { b ->
+  must.takeIf { it.isNotEmpty() }?.also { b.must(it) }
+  filter.takeIf { it.isNotEmpty() }?.also { b.filter(it) }
+  should.takeIf { it.isNotEmpty() }?.also { b.should(it) }
+  mustNot.takeIf { it.isNotEmpty() }?.also { b.mustNot(it) }
+  b.minimumShouldMatch(minimumShouldMatch()).boost(boost()).queryName(queryName())
+}
+
+private fun BoolQuery.isPlain() =
+  boost() == null && queryName() == null && minimumShouldMatch() == null
+
+private fun BoolQuery.isShouldOnly() =
+  should().isNotEmpty() && must().isEmpty() && filter().isEmpty() && mustNot().isEmpty()
+
+/**
+ * Whether range bounds on this field compare as numbers. Other fields, such as `keyword` ones,
+ * compare their bounds as strings, where `"10"` is lower than `"9"`.
+ */
+private fun Metamodel<*>.hasNumericBounds(): Boolean =
+  when (this) {
+    is LongField<*>,
+    is IntegerField<*>,
+    is ShortField<*>,
+    is ByteField<*>,
+    is DoubleField<*>,
+    is FloatField<*>,
+    is HalfFloatField<*>,
+    is ScaledFloatField<*>,
+    is DateField<*>,
+    is DateNanosField<*> -> true
+    else -> false
+  }
+
+private fun Metamodel<*>.isMultiValued(): Boolean =
+  fieldClass()?.java?.let { Collection::class.java.isAssignableFrom(it) || it.isArray } ?: true
+
+private fun List<Query>.distinctClauses(): List<Query> =
+  if (size > 1) distinctBy { it.jsonKey() } else this
+
+/** Returns the field and values of a plain `term` or value `terms` query. */
+private fun Query.termValues(): Pair<String, List<FieldValue>>? =
+  when {
+    isTerm ->
+      term()
+        .takeIf { it.boost() == null && it.queryName() == null && it.caseInsensitive() == null }
+        ?.let { it.field() to listOf(it.value()) }
+    isTerms ->
+      terms()
+        .takeIf { it.boost() == null && it.queryName() == null && it.terms().isValue }
+        ?.let { it.field() to it.terms().value() }
+    else -> null
+  }
+
+private fun List<FieldValue>.toTermQuery(field: String): Query =
+  singleOrNull()?.let { value -> Query(TermQuery.of { it.field(field).value(value) }) }
+    ?: Query(TermsQuery.of { b -> b.field(field).terms { it.value(this) } })
+
+/** Returns the bounds of a range query that can be rebuilt from them without any loss. */
+private fun Query.rangeBounds(): RangeBounds? =
+  takeIf { it.isRange }
+    ?.range()
+    ?.toRangeBounds()
+    ?.takeIf { Query(it.toRangeQuery()).jsonKey() == jsonKey() }
+
+/** Returns the intersection of both ranges, or `null` when their bounds can't be compared. */
+private fun RangeBounds.intersect(other: RangeBounds): RangeBounds? {
+  if (format != other.format) return null
+  val lower = tighter(lowerBound(), other.lowerBound(), 1) ?: return null
+  val upper = tighter(upperBound(), other.upperBound(), -1) ?: return null
+  return RangeBounds(
+    field = field,
+    gt = lower.value.takeIf { lower.exclusive },
+    gte = lower.value.takeUnless { lower.exclusive },
+    lt = upper.value.takeIf { upper.exclusive },
+    lte = upper.value.takeUnless { upper.exclusive },
+    format = format,
+  )
+}
+
+private fun RangeBounds.lowerBound(): Bound? =
+  when {
+    gt != null && gte != null -> Bound.INCOMPARABLE
+    gt != null -> Bound(gt, true)
+    gte != null -> Bound(gte, false)
+    else -> null
+  }
+
+private fun RangeBounds.upperBound(): Bound? =
+  when {
+    lt != null && lte != null -> Bound.INCOMPARABLE
+    lt != null -> Bound(lt, true)
+    lte != null -> Bound(lte, false)
+    else -> null
+  }
+
+/**
+ * Returns the more restrictive of both bounds, [sign] being 1 for lower bounds and -1 for upper
+ * bounds: [Bound.NONE] when there is none, `null` when they can't be compared.
+ */
+private fun tighter(bound: Bound?, other: Bound?, sign: Int): Bound? {
+  if (bound === Bound.INCOMPARABLE || other === Bound.INCOMPARABLE) return null
+  if (bound == null || other == null) return bound ?: other ?: Bound.NONE
+  val comparison =
+    if (bound.text == other.text) 0
+    else bound.number?.let { number -> other.number?.let(number::compareTo) } ?: return null
+  return when {
+    comparison * sign > 0 -> bound
+    comparison * sign < 0 -> other
+    bound.exclusive -> bound
+    else -> other
+  }
+}
+
+/** Compact JSON of a clause, identical for structurally equal clauses. */
+internal fun JsonpSerializable.jsonKey(): String {
+  val writer = StringWriter()
+  KEY_MAPPER.jsonProvider().createGenerator(writer).use { serialize(it, KEY_MAPPER) }
+  return writer.toString()
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.FieldValue
+import co.elastic.clients.json.JsonData
+import com.ekino.oss.metalastic.core.Container
+import com.ekino.oss.metalastic.core.Metamodel
+import com.google.common.collect.BoundType
+import com.google.common.collect.Range
+import io.github.oshai.kotlinlogging.KotlinLogging
+import org.springframework.data.elasticsearch.annotations.DateFormat
+
+/**
+ * Writes the JSON of the bool query described by [block] straight from the DSL calls, without
+ * building elasticsearch-java query objects, for services sending raw request bodies.
+ *
+ * The JSON is the same, byte for byte, as the compact serialization of the query built by
+ * [boolQueryDsl] with the same clauses:
+ * ```kotlin
+ * val json = boolQueryJson {
+ *   filter + {
+ *     document.status term Status.ACTIVE
+ *     document.price greaterThanEqualTo 10.0
+ *   }
+ * }
+ * // {"bool":{"filter":[{"term":{"status":{"value":"ACTIVE"}}},{"range":{"price":{"gte":10.0}}}]}}
+ * ```
+ *
+ * [JsonQueryVariantDsl] covers the common term-level and full-text queries. Options rewriting the
+ * built query ([QueryDslOptions.nestedGrouping], [QueryDslOptions.canonicalOrder] and
+ * [QueryDslOptions.foldConstants]) need the query objects and are rejected.
+ */
+fun boolQueryJson(
+  options: QueryDslOptions = QueryDslOptions.DEFAULT,
+  block: JsonBoolQueryDsl.() -> Unit,
+): String = StringBuilder().also { writeBoolQueryJson(it, options, block) }.toString()
+
+/** Writes the JSON of the bool query described by [block] to [out], see [boolQueryJson]. */
+fun writeBoolQueryJson(
+  out: Appendable,
+  options: QueryDslOptions = QueryDslOptions.DEFAULT,
+  block: JsonBoolQueryDsl.() -> Unit,
+) {
+  require(!options.rewritesBuiltQuery) {
+    "nestedGrouping, canonicalOrder and foldConstants rewrite query objects, use boolQueryDsl"
+  }
+  JsonBoolQueryDsl(options).apply(block).writeTo(out)
+}
+
+/**
+ * Occurrences of a bool query written as JSON, mirroring [BoolQueryDsl]. Clauses are kept per
+ * occurrence and written in the order of the elasticsearch-java serialization.
+ */
+@ElasticsearchDsl
+class JsonBoolQueryDsl internal constructor(private val options: QueryDslOptions) {
+
+  private val mustClauses = JsonClauses()
+  private val filterClauses = JsonClauses()
+  private val shouldClauses = JsonClauses()
+  private val mustNotClauses = JsonClauses()
+  private var minimumShouldMatch: String? = null
+
+  val must = BoolQueryDsl.Must
+  val mustNot = BoolQueryDsl.MustNot
+  val should = BoolQueryDsl.Should
+  val filter = BoolQueryDsl.Filter
+
+  /** Adds queries to the `must` occurrence. */
+  fun mustDsl(block: JsonQueryVariantDsl.() -> Unit) {
+    JsonQueryVariantDsl(options, mustClauses).apply(block)
+  }
+
+  /** Adds queries to the `must_not` occurrence. */
+  fun mustNotDsl(block: JsonQueryVariantDsl.() -> Unit) {
+    JsonQueryVariantDsl(options, mustNotClauses).apply(block)
+  }
+
+  /** Adds queries to the `should` occurrence. */
+  fun shouldDsl(block: JsonQueryVariantDsl.() -> Unit) {
+    JsonQueryVariantDsl(options, shouldClauses).apply(block)
+  }
+
+  /** Adds queries to the `filter` occurrence. */
+  fun filterDsl(block: JsonQueryVariantDsl.() -> Unit) {
+    JsonQueryVariantDsl(options, filterClauses).apply(block)
+  }
+
+  operator fun BoolQueryDsl.Must.plus(block: JsonQueryVariantDsl.() -> Unit) = mustDsl(block)
+
+  operator fun BoolQueryDsl.MustNot.plus(block: JsonQueryVariantDsl.() -> Unit) = mustNotDsl(block)
+
+  operator fun BoolQueryDsl.Should.plus(block: JsonQueryVariantDsl.() -> Unit) = shouldDsl(block)
+
+  operator fun BoolQueryDsl.Filter.plus(block: JsonQueryVariantDsl.() -> Unit) = filterDsl(block)
+
+  /** Sets `minimum_should_match`, passing `null` is a no-op. */
+  fun minimumShouldMatch(value: String?) {
+    value?.also { minimumShouldMatch = it }
+  }
+
+  /** Convenience overload for the common integer form of `minimum_should_match`. */
+  fun minimumShouldMatch(value: Int) {
+    minimumShouldMatch = value.toString()
+  }
+
+  internal fun isEmpty(): Boolean =
+    mustClauses.isEmpty() &&
+      filterClauses.isEmpty() &&
+      shouldClauses.isEmpty() &&
+      mustNotClauses.isEmpty()
+
+  /** Writes `{"bool":{...}}`. */
+  internal fun writeTo(out: Appendable) {
+    out.append("{\"bool\":{")
+    var first = true
+    fun key(name: String): Appendable {
+      if (!first) out.append(',')
+      first = false
+      return out.append('"').append(name).append("\":")
+    }
+    filterClauses.takeUnless { it.isEmpty() }?.also { key("filter").appendArray(it) }
+    minimumShouldMatch?.also { key("minimum_should_match").appendString(it) }
+    mustClauses.takeUnless { it.isEmpty() }?.also { key("must").appendArray(it) }
+    mustNotClauses.takeUnless { it.isEmpty() }?.also { key("must_not").appendArray(it) }
+    shouldClauses.takeUnless { it.isEmpty() }?.also { key("should").appendArray(it) }
+    out.append("}}")
+  }
+}
+
+/**
+ * Queries of one occurrence written as JSON, mirroring the null-skipping behavior and the value
+ * conversions of [QueryVariantDsl].
+ */
+@ElasticsearchDsl
+class JsonQueryVariantDsl
+internal constructor(private val options: QueryDslOptions, private val clauses: JsonClauses) {
+
+  companion object {
+    private val logger = KotlinLogging.logger {}
+  }
+
+  /** Adds a nested bool query, unless [block] adds no clause. */
+  fun bool(block: JsonBoolQueryDsl.() -> Unit) {
+    val bool = JsonBoolQueryDsl(options).apply(block)
+    if (!bool.isEmpty()) {
+      bool.writeTo(clauses.next())
+    }
+  }
+
+  /**
+   * creates
+   * [Nested query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-nested-query)
+   */
+  fun Container<*>.nested(block: JsonBoolQueryDsl.() -> Unit) {
+    val bool = JsonBoolQueryDsl(options).apply(block)
+    if (bool.isEmpty()) return
+    val json = clauses.next()
+    if (isNested()) {
+      json.append("{\"nested\":{\"path\":").appendString(path()).append(",\"query\":")
+      bool.writeTo(json)
+      json.append("}}")
+    } else {
+      logger.warn {
+        "Nested query used on non-nested field '${path()}'. " +
+          "The field should be marked with @Field(type = FieldType.Nested) in the Elasticsearch mapping. " +
+          "The query will be applied as a regular bool query instead."
+      }
+      bool.writeTo(json)
+    }
+  }
+
+  /**
+   * creates
+   * [Term query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-term-query)
+   */
+  infix fun <T> Metamodel<T>.term(value: T?) {
+    toFieldValue(value)?.also { fieldValue ->
+      clauses
+        .next()
+        .fieldQuery("term", path(), "value")
+        .appendFieldValue(fieldValue)
+        .append("}}}")
+    }
+  }
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  infix fun <T> Metamodel<T>.terms(values: Collection<T>?) {
+    if (values.isNullOrEmpty()) return
+    val fieldValues = toFieldValues(values)
+    require(fieldValues.size <= options.maxTermsPerQuery) {
+      "${fieldValues.size} terms on ${path()} exceed maxTermsPerQuery, use boolQueryDsl to split them"
+    }
+    val json = clauses.next().append("{\"terms\":{").appendString(path()).append(":[")
+    fieldValues.forEachIndexed { index, fieldValue ->
+      if (index > 0) json.append(',')
+      json.appendFieldValue(fieldValue)
+    }
+    json.append("]}}")
+  }
+
+  /**
+   * creates
+   * [Match query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-match-query)
+   */
+  infix fun <T> Metamodel<T>.match(value: T?) {
+    toFieldValue(value)?.also { fieldValue ->
+      clauses
+        .next()
+        .fieldQuery("match", path(), "query")
+        .appendFieldValue(fieldValue)
+        .append("}}}")
+    }
+  }
+
+  /**
+   * creates
+   * [Prefix query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-prefix-query)
+   */
+  infix fun Metamodel<*>.prefix(value: String?) {
+    if (value.isNullOrBlank()) return
+    clauses.next().fieldQuery("prefix", path(), "value").appendString(value).append("}}}")
+  }
+
+  /**
+   * creates
+   * [Exists query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-exists-query)
+   */
+  fun Metamodel<*>.exist() {
+    clauses.next().append("{\"exists\":{\"field\":").appendString(path()).append("}}")
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   */
+  infix fun <T : Any> Metamodel<T>.range(range: Range<out Comparable<T>>?) {
+    when {
+      range == null -> Unit
+      !range.hasLowerBound() && !range.hasUpperBound() ->
+        clauses.next().append("{\"match_none\":{}}")
+      else -> writeRange(range)
+    }
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   */
+  infix fun <T : Comparable<T>> Metamodel<T>.greaterThanEqualTo(value: T?) {
+    value?.also { range(Range.atLeast(it)) }
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   */
+  infix fun <T : Comparable<T>> Metamodel<T>.greaterThan(value: T?) {
+    value?.also { range(Range.greaterThan(it)) }
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   */
+  infix fun <T : Comparable<T>> Metamodel<T>.lowerThanEqualTo(value: T?) {
+    value?.also { range(Range.atMost(it)) }
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   */
+  infix fun <T : Comparable<T>> Metamodel<T>.lowerThan(value: T?) {
+    value?.also { range(Range.lessThan(it)) }
+  }
+
+  /** Writes the bounds in the order of the elasticsearch-java serialization, then the format. */
+  private fun <T : Any> Metamodel<T>.writeRange(range: Range<out Comparable<T>>) {
+    val json = clauses.next().append("{\"range\":{").appendString(path()).append(":{")
+    var format: DateFormat? = null
+    fun bound(key: String, value: Comparable<T>, upper: Boolean) {
+      val (bound, boundFormat) = toRangeBound(value, upper, options.dateRounding)
+      if (format == null) format = boundFormat
+      json.append('"').append(key).append("\":").appendRaw(bound)
+    }
+    if (range.hasLowerBound()) {
+      val key = if (range.lowerBoundType() == BoundType.OPEN) "gt" else "gte"
+      bound(key, range.lowerEndpoint(), upper = false)
+    }
+    if (range.hasUpperBound()) {
+      if (range.hasLowerBound()) json.append(',')
+      val key = if (range.upperBoundType() == BoundType.OPEN) "lt" else "lte"
+      bound(key, range.upperEndpoint(), upper = true)
+    }
+    format?.also { json.append(",\"format\":").appendString(it.pattern) }
+    json.append("}}}")
+  }
+}
+
+/** Clauses of one occurrence, as the comma-separated elements of its JSON array. */
+internal class JsonClauses {
+  private val json = StringBuilder()
+  private var size = 0
+
+  /** Returns the buffer to write the next clause to. */
+  fun next(): StringBuilder {
+    if (size++ > 0) json.append(',')
+    return json
+  }
+
+  fun isEmpty() = size == 0
+
+  fun appendTo(out: Appendable) {
+    out.append('[').append(json).append(']')
+  }
+}
+
+private fun Appendable.appendArray(clauses: JsonClauses) = clauses.appendTo(this)
+
+/** Writes `{"<kind>":{"<field>":{"<key>":` for a single-field query. */
+private fun StringBuilder.fieldQuery(kind: String, field: String, key: String): StringBuilder =
+  append("{\"")
+    .append(kind)
+    .append("\":{")
+    .appendString(field)
+    .append(":{\"")
+    .append(key)
+    .append("\":")
+
+private fun StringBuilder.appendFieldValue(value: FieldValue): StringBuilder =
+  when {
+    value.isString -> appendString(value.stringValue())
+    value.isLong -> append(value.longValue())
+    value.isDouble -> append(value.doubleValue())
+    value.isBoolean -> append(value.booleanValue())
+    value.isNull -> append("null")
+    else -> append(value.jsonKey())
+  }
+
+/** Writes a range bound as the client's JSON-P mapper serializes it. */
+private fun StringBuilder.appendRaw(value: Any): StringBuilder =
+  when (value) {
+    is String -> appendString(value)
+    is Long,
+    is Int -> append(value.toString())
+    is Double -> append(value)
+    is Boolean -> append(value)
+    else -> append(JsonData.of(value).jsonKey())
+  }
+
+/** Writes [value] as a JSON string, escaped as the JSON-P generator escapes it. */
+internal fun <A : Appendable> A.appendString(value: String): A {
+  append('"')
+  for (char in value) {
+    when {
+      char == '"' -> append("\\\"")
+      char == '\\' -> append("\\\\")
+      char == '\b' -> append("\\b")
+      char == '\u000C' -> append("\\f")
+      char == '\n' -> append("\\n")
+      char == '\r' -> append("\\r")
+      char == '\t' -> append("\\t")
+      char < ' ' -> append("\\u").append(char.code.toString(HEX_RADIX).padStart(4, '0'))
+      else -> append(char)
+    }
+  }
+  append('"')
+  return this
+}
+
+private const val HEX_RADIX = 16
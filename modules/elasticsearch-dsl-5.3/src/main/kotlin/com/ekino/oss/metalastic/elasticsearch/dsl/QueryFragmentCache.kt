@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+
+/**
+ * Bounded cache of constant query fragments, set through [QueryDslOptions.fragmentCache].
+ *
+ * The queries added by [QueryVariantDsl.constant] and [QueryVariantDsl.constantTerm] are built on
+ * the first request using their key, then the same immutable [Query] instances are added to every
+ * later request. Least recently used fragments are evicted beyond [maxSize] keys.
+ *
+ * ```kotlin
+ * val options = QueryDslOptions(fragmentCache = QueryFragmentCache())
+ *
+ * BoolQuery.of {
+ *   it.boolQueryDsl(options) {
+ *     filter + {
+ *       document.status constantTerm Status.ACTIVE
+ *       document.tenant constantTerm tenantId
+ *       document.name match searchText
+ *     }
+ *   }
+ * }
+ * ```
+ *
+ * A fragment is built with the options of the DSL that first adds it, so a cache should only be
+ * shared by requests built with the same options. The cache is safe for concurrent use.
+ *
+ * @param maxSize largest number of fragments kept
+ */
+class QueryFragmentCache(val maxSize: Int = DEFAULT_MAX_SIZE) {
+
+  init {
+    require(maxSize > 0) { "maxSize must be positive, was $maxSize" }
+  }
+
+  private val fragments =
+    object : LinkedHashMap<Any, List<Query>>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Any, List<Query>>): Boolean =
+        (size > maxSize).also { if (it) evictions++ }
+    }
+  private var hits = 0L
+  private var misses = 0L
+  private var evictions = 0L
+
+  /**
+   * Returns the queries cached for [key], or builds, caches and returns them. [build] runs outside
+   * the lock: when two threads miss the same key, the fragment cached first wins.
+   */
+  internal fun getOrBuild(key: Any, build: () -> List<Query>): List<Query> {
+    synchronized(fragments) {
+      fragments[key]?.also {
+        hits++
+        return it
+      }
+      misses++
+    }
+    val built = build()
+    return synchronized(fragments) { fragments.putIfAbsent(key, built) ?: built }
+  }
+
+  /** Returns the statistics of this cache since it was created or last cleared. */
+  fun stats(): Stats =
+    synchronized(fragments) { Stats(hits, misses, evictions, fragments.size) }
+
+  /** Removes every fragment and resets the statistics. */
+  fun clear() {
+    synchronized(fragments) {
+      fragments.clear()
+      hits = 0
+      misses = 0
+      evictions = 0
+    }
+  }
+
+  /**
+   * Statistics of a [QueryFragmentCache].
+   *
+   * @param hits lookups served from the cache
+   * @param misses lookups that built their fragment
+   * @param evictions fragments removed to stay within [maxSize]
+   * @param size fragments currently cached
+   */
+  data class Stats(val hits: Long, val misses: Long, val evictions: Long, val size: Int) {
+
+    /** Share of the lookups served from the cache, `0.0` before any lookup. */
+    val hitRate: Double
+      get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+  }
+
+  companion object {
+    const val DEFAULT_MAX_SIZE = 1_024
+
+    private const val INITIAL_CAPACITY = 16
+    private const val LOAD_FACTOR = 0.75f
+  }
+}
@@ -27,10 +27,14 @@ import co.elastic.clients.elasticsearch._types.query_dsl.QueryVariant
 import co.elastic.clients.elasticsearch._types.query_dsl.RegexpQuery
 import co.elastic.clients.elasticsearch._types.query_dsl.TermQuery
 import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQueryField
 import co.elastic.clients.elasticsearch._types.query_dsl.TermsSetQuery
 import co.elastic.clients.elasticsearch._types.query_dsl.WildcardQuery
+import co.elastic.clients.json.JsonData
+import com.ekino.oss.metalastic.core.ConstantKeywordField
 import com.ekino.oss.metalastic.core.Container
 import com.ekino.oss.metalastic.core.DateField
+import com.ekino.oss.metalastic.core.Document
 import com.ekino.oss.metalastic.core.Metamodel
 import com.google.common.collect.Range
 import io.github.oshai.kotlinlogging.KotlinLogging
@@ -40,6 +44,7 @@ import java.time.LocalDateTime
 import java.time.OffsetDateTime
 import java.time.ZonedDateTime
 import java.util.Date
+import org.springframework.data.elasticsearch.annotations.DateFormat
 
 /**
  * Type-safe DSL for building Elasticsearch queries using metamodel-based field references.
@@ -70,7 +75,20 @@ import java.util.Date
  */
 @Suppress("TooManyFunctions")
 @ElasticsearchDsl
-class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
+class QueryVariantDsl
+internal constructor(
+  @PublishedApi internal val options: QueryDslOptions,
+  private val add: (queryVariant: QueryVariant) -> Unit,
+  private val addQuery: (query: Query) -> Unit,
+  @PublishedApi internal val fingerprints: FingerprintRecorder? = null,
+) {
+
+  constructor(
+    options: QueryDslOptions,
+    add: (queryVariant: QueryVariant) -> Unit,
+  ) : this(options, add, { query -> add(query._get() as QueryVariant) })
+
+  constructor(add: (queryVariant: QueryVariant) -> Unit) : this(QueryDslOptions.DEFAULT, add)
 
   companion object {
     private val logger = KotlinLogging.logger {}
@@ -90,8 +108,9 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
    * - [BoolQueryDsl.should]
    * - [BoolQueryDsl.filter]
    */
-  fun bool(block: BoolQueryDsl.() -> Unit) {
-    val boolQuery = BoolQuery.Builder().apply { BoolQueryDsl(this).apply(block) }.build()
+  inline fun bool(block: BoolQueryDsl.() -> Unit) {
+    val boolQuery =
+      BoolQuery.Builder().apply { BoolQueryDsl(this, options, fingerprints).block() }.build()
     if (!boolQuery.isEmpty()) {
       +boolQuery
     }
@@ -114,6 +133,9 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
    * `should` query-variants are added in a nested [BoolQuery] to ensure that at least one of the
    * [QueryVariant] is a match.
    *
+   * Beyond [QueryDslOptions.maxClauseCount] query-variants, they are spread over nested
+   * [BoolQuery]s.
+   *
    * [see Using&nbsp;
    * minimum_should_match](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-bool-query#bool-min-should-match)
    */
@@ -122,25 +144,51 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
       ?.takeUnless { it.isEmpty() }
       ?.distinct()
       ?.also { nonEmptyValues ->
-        bool {
-          should +
-            {
-              nonEmptyValues.forEach { value -> QueryVariantDsl { query -> +query }.block(value) }
-            }
+        val queries = mutableListOf<Query>()
+        val dsl = collecting { query -> queries += query }
+        nonEmptyValues.forEach { value -> dsl.block(value) }
+        if (queries.isNotEmpty()) {
+          +anyOf(queries)
         }
       }
   }
 
+  /**
+   * Creates the DSL of a compound query of this DSL, fingerprinting each query, as this DSL does,
+   * before [addQuery] collects it.
+   */
+  private fun collecting(addQuery: (Query) -> Unit): QueryVariantDsl =
+    QueryVariantDsl(
+      options,
+      { variant ->
+        fingerprints?.record(variant)
+        addQuery(Query(variant))
+      },
+      { query ->
+        fingerprints?.record(query._get())
+        addQuery(query)
+      },
+      fingerprints,
+    )
+
+  /** Combines [queries] in a should-only [BoolQuery], nesting them beyond the clause limit. */
+  private fun anyOf(queries: List<Query>): BoolQuery =
+    if (queries.size <= options.maxClauseCount) {
+      BoolQuery.of { it.should(queries) }
+    } else {
+      anyOf(queries.chunked(options.maxClauseCount).map { Query(anyOf(it)) })
+    }
+
   /**
    * creates
    * [Disjunction max query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-dis-max-query)
    */
   fun disMax(disMax: DisMaxQuery.Builder.() -> Unit = {}, block: QueryVariantDsl.() -> Unit) {
-    val queryVariants = mutableListOf<QueryVariant>()
-    QueryVariantDsl { queryVariants += it }.apply(block)
-    queryVariants
+    val queries = mutableListOf<Query>()
+    collecting { queries += it }.apply(block)
+    queries
       .takeUnless { it.isEmpty() }
-      ?.also { +DisMaxQuery.of { b -> b.apply(disMax).queries(queryVariants.map(::Query)) } }
+      ?.also { +DisMaxQuery.of { b -> b.apply(disMax).queries(queries) } }
   }
 
   /**
@@ -170,7 +218,7 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
    * [Exists query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-exists-query)
    */
   fun Metamodel<*>.exist() {
-    +ExistsQuery.of { it.field(path()) }
+    +ExistsQuery.Builder().field(path()).build()
   }
 
   /**
@@ -463,7 +511,7 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
     block: MatchQuery.Builder.() -> Unit = {},
   ) {
     toFieldValue(value)?.also { fieldValue ->
-      +MatchQuery.of { it.field(path()).query(fieldValue).apply(block) }
+      +MatchQuery.Builder().field(path()).query(fieldValue).apply(block).build()
     }
   }
 
@@ -724,11 +772,21 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
    * creates
    * [Nested query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-nested-query)
    */
-  fun Container<*>.nested(
-    setupBlock: NestedQuery.Builder.() -> Unit = {},
+  inline fun Container<*>.nested(
+    noinline setupBlock: NestedQuery.Builder.() -> Unit = {},
     block: BoolQueryDsl.() -> Unit,
   ) {
-    val boolQuery = BoolQuery.Builder().apply { BoolQueryDsl(this).apply(block) }.build()
+    val boolQuery =
+      BoolQuery.Builder().apply { BoolQueryDsl(this, options, fingerprints).block() }.build()
+    addNested(boolQuery, setupBlock)
+  }
+
+  /** Adds [boolQuery] in a nested query on this container, or as is if it is not nested. */
+  @PublishedApi
+  internal fun Container<*>.addNested(
+    boolQuery: BoolQuery,
+    setupBlock: NestedQuery.Builder.() -> Unit,
+  ) {
     if (!boolQuery.isEmpty()) {
       if (isNested()) {
         +NestedQuery.of { it.path(path()).query(Query(boolQuery)).apply(setupBlock) }
@@ -756,7 +814,7 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   fun Metamodel<*>.prefix(value: String?, block: PrefixQuery.Builder.() -> Unit = {}) {
     value
       .takeUnless { it.isNullOrBlank() }
-      ?.also { +PrefixQuery.of { b -> b.field(path()).value(value).apply(block) } }
+      ?.also { add(folded(PrefixQuery.Builder().field(path()).value(it).apply(block).build())) }
   }
 
   /**
@@ -1179,7 +1237,7 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
     block: TermQuery.Builder.() -> Unit = {},
   ) {
     toFieldValue(value)?.also { fieldValue ->
-      +TermQuery.of { it.field(path()).value(fieldValue).apply(block) }
+      add(folded(TermQuery.Builder().field(path()).value(fieldValue).apply(block).build()))
     }
   }
 
@@ -1202,62 +1260,62 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
-  fun Metamodel<Int>.terms(vararg terms: Int) = termsUnchecked(terms.toList()) {}
+  fun Metamodel<Int>.terms(vararg terms: Int) = termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<Int>.terms(vararg terms: Int, block: TermsQuery.Builder.() -> Unit = {}) =
-    termsUnchecked(terms.toList(), block)
+    termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
-  fun Metamodel<Long>.terms(vararg terms: Long) = termsUnchecked(terms.toList()) {}
+  fun Metamodel<Long>.terms(vararg terms: Long) = termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<Long>.terms(vararg terms: Long, block: TermsQuery.Builder.() -> Unit = {}) =
-    termsUnchecked(terms.toList(), block)
+    termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
-  fun Metamodel<Float>.terms(vararg terms: Float) = termsUnchecked(terms.toList()) {}
+  fun Metamodel<Float>.terms(vararg terms: Float) = termsOf(terms.toFieldValues()) {}
 
   fun Metamodel<Float>.terms(vararg terms: Float, block: TermsQuery.Builder.() -> Unit = {}) =
-    termsUnchecked(terms.toList(), block)
+    termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
-  fun Metamodel<Double>.terms(vararg terms: Double) = termsUnchecked(terms.toList()) {}
+  fun Metamodel<Double>.terms(vararg terms: Double) = termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<Double>.terms(vararg terms: Double, block: TermsQuery.Builder.() -> Unit = {}) =
-    termsUnchecked(terms.toList(), block)
+    termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
-  fun Metamodel<Boolean>.terms(vararg terms: Boolean) = termsUnchecked(terms.toList()) {}
+  fun Metamodel<Boolean>.terms(vararg terms: Boolean) = termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<Boolean>.terms(vararg terms: Boolean, block: TermsQuery.Builder.() -> Unit = {}) =
-    termsUnchecked(terms.toList(), block)
+    termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
@@ -1361,6 +1419,88 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   fun DateField<Date>.terms(vararg terms: Date, block: TermsQuery.Builder.() -> Unit = {}) =
     termsUnchecked(terms.toList(), block)
 
+  // TERMS QUERIES - Primitive array and collection overloads
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsLongArray")
+  infix fun Metamodel<Long>.terms(terms: LongArray?) = termsOf(terms?.toFieldValues()) {}
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsLongArrayWithBlock")
+  fun Metamodel<Long>.terms(terms: LongArray?, block: TermsQuery.Builder.() -> Unit = {}) =
+    termsOf(terms?.toFieldValues(), block)
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsIntArray")
+  infix fun Metamodel<Int>.terms(terms: IntArray?) = termsOf(terms?.toFieldValues()) {}
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsIntArrayWithBlock")
+  fun Metamodel<Int>.terms(terms: IntArray?, block: TermsQuery.Builder.() -> Unit = {}) =
+    termsOf(terms?.toFieldValues(), block)
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsLong")
+  infix fun Metamodel<Long>.terms(terms: Collection<Long>?) =
+    termsOf(terms?.map { FieldValue.of(it) }) {}
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsLongWithBlock")
+  fun Metamodel<Long>.terms(terms: Collection<Long>?, block: TermsQuery.Builder.() -> Unit = {}) =
+    termsOf(terms?.map { FieldValue.of(it) }, block)
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsInt")
+  infix fun Metamodel<Int>.terms(terms: Collection<Int>?) =
+    termsOf(terms?.map { FieldValue.of(it.toLong()) }) {}
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   */
+  @JvmName("termsIntWithBlock")
+  fun Metamodel<Int>.terms(terms: Collection<Int>?, block: TermsQuery.Builder.() -> Unit = {}) =
+    termsOf(terms?.map { FieldValue.of(it.toLong()) }, block)
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   * on the distinct values of [terms], in ascending order. Sorting and de-duplication run on a copy
+   * of the primitive array, before any field value is created.
+   */
+  fun Metamodel<Long>.distinctTerms(terms: LongArray?, block: TermsQuery.Builder.() -> Unit = {}) =
+    termsOf(terms?.sortedDistinct()?.toFieldValues(), block)
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   * on the distinct values of [terms], in ascending order. Sorting and de-duplication run on a copy
+   * of the primitive array, before any field value is created.
+   */
+  fun Metamodel<Int>.distinctTerms(terms: IntArray?, block: TermsQuery.Builder.() -> Unit = {}) =
+    termsOf(terms?.sortedDistinct()?.toFieldValues(), block)
+
   // TERMS QUERIES - Collection overloads (fallback)
 
   /**
@@ -1435,7 +1575,7 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<out Collection<Int>>.containsTerms(vararg terms: Int) =
-    termsUnchecked(terms.toList()) {}
+    termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
@@ -1444,14 +1584,14 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   fun Metamodel<out Collection<Int>>.containsTerms(
     vararg terms: Int,
     block: TermsQuery.Builder.() -> Unit = {},
-  ) = termsUnchecked(terms.toList(), block)
+  ) = termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<out Collection<Long>>.containsTerms(vararg terms: Long) =
-    termsUnchecked(terms.toList()) {}
+    termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
@@ -1460,14 +1600,14 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   fun Metamodel<out Collection<Long>>.containsTerms(
     vararg terms: Long,
     block: TermsQuery.Builder.() -> Unit = {},
-  ) = termsUnchecked(terms.toList(), block)
+  ) = termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<out Collection<Float>>.containsTerms(vararg terms: Float) =
-    termsUnchecked(terms.toList()) {}
+    termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
@@ -1476,14 +1616,14 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   fun Metamodel<out Collection<Float>>.containsTerms(
     vararg terms: Float,
     block: TermsQuery.Builder.() -> Unit = {},
-  ) = termsUnchecked(terms.toList(), block)
+  ) = termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<out Collection<Double>>.containsTerms(vararg terms: Double) =
-    termsUnchecked(terms.toList()) {}
+    termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
@@ -1492,14 +1632,14 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   fun Metamodel<out Collection<Double>>.containsTerms(
     vararg terms: Double,
     block: TermsQuery.Builder.() -> Unit = {},
-  ) = termsUnchecked(terms.toList(), block)
+  ) = termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
    * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
    */
   fun Metamodel<out Collection<Boolean>>.containsTerms(vararg terms: Boolean) =
-    termsUnchecked(terms.toList()) {}
+    termsOf(terms.toFieldValues()) {}
 
   /**
    * creates
@@ -1508,7 +1648,7 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   fun Metamodel<out Collection<Boolean>>.containsTerms(
     vararg terms: Boolean,
     block: TermsQuery.Builder.() -> Unit = {},
-  ) = termsUnchecked(terms.toList(), block)
+  ) = termsOf(terms.toFieldValues(), block)
 
   /**
    * creates
@@ -1682,10 +1822,117 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   ) {
     terms
       ?.takeUnless { it.isEmpty() }
+      ?.also { addTerms(toFieldValues(terms), block) }
+  }
+
+  /** Adds a terms query on already converted [values], unless there are none. */
+  private fun Metamodel<*>.termsOf(
+    values: List<FieldValue>?,
+    block: TermsQuery.Builder.() -> Unit = {},
+  ) {
+    values?.takeUnless { it.isEmpty() }?.also { addTerms(it, block) }
+  }
+
+  /**
+   * Adds a terms query on [values], replaced by [QueryDslOptions.termsOverflow] or split into
+   * several terms queries combined in a [BoolQuery] when they exceed
+   * [QueryDslOptions.maxTermsPerQuery]. The `boost` and `_name` set by [block] then apply once, to
+   * that bool query.
+   */
+  private fun Metamodel<*>.addTerms(
+    values: List<FieldValue>,
+    block: TermsQuery.Builder.() -> Unit,
+  ) {
+    val chunkSize = options.maxTermsPerQuery
+    if (values.size <= chunkSize) {
+      add(folded(termsQuery(values, block)))
+      return
+    }
+    options.termsOverflow?.replace(this, values)?.let {
+      +it
+      return
+    }
+    // Matching any of the chunks is matching any of the values, in every occurrence
+    var boost: Float? = null
+    var queryName: String? = null
+    val chunks =
+      (values.indices step chunkSize).map { start ->
+        val chunk = termsQuery(values.subList(start, minOf(start + chunkSize, values.size)), block)
+        boost = chunk.boost()
+        queryName = chunk.queryName()
+        Query(folded(chunk.unnamed()))
+      }
+    val any = anyOf(chunks)
+    if (boost == null && queryName == null) {
+      +any
+    } else {
+      +BoolQuery.of { it.should(any.should()).boost(boost).queryName(queryName) }
+    }
+  }
+
+  /** Returns this terms query without its `boost` and `_name`. */
+  private fun TermsQuery.unnamed(): TermsQuery =
+    if (boost() == null && queryName() == null) {
+      this
+    } else {
+      TermsQuery.of { it.field(field()).terms(terms()) }
+    }
+
+  /**
+   * Returns `match_all` or `match_none` instead of [query] when [QueryDslOptions.foldConstants] is
+   * on and this field is a [ConstantKeywordField] whose value decides the query.
+   */
+  private fun Metamodel<*>.folded(query: QueryVariant): QueryVariant =
+    (this as? ConstantKeywordField<*>)
+      ?.takeIf { options.foldConstants }
+      ?.evaluate(query)
+      ?.let { constantQuery(it) } ?: query
+
+  private fun Metamodel<*>.termsQuery(
+    values: List<FieldValue>,
+    block: TermsQuery.Builder.() -> Unit,
+  ): TermsQuery =
+    TermsQuery.Builder()
+      .field(path())
+      .terms(TermsQueryField.Builder().value(values).build())
+      .apply(block)
+      .build()
+
+  /**
+   * creates
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query#query-dsl-terms-lookup)
+   * fetching its values from the [lookupPath] field of the [document] stored with [id], so large
+   * value lists stay on the cluster instead of being sent with every request.
+   *
+   * ```kotlin
+   * document.ownerId.termsLookup(Metamodels.followList, userId, Metamodels.followList.followed)
+   * ```
+   *
+   * If [id] is null or blank, the query is not added.
+   *
+   * @param routing custom routing value of the [document] to fetch
+   * @throws IllegalArgumentException if [lookupPath] is not a field of [document]
+   */
+  fun Metamodel<*>.termsLookup(
+    document: Document<*>,
+    id: String?,
+    lookupPath: Metamodel<*>,
+    routing: String? = null,
+    block: TermsQuery.Builder.() -> Unit = {},
+  ) {
+    require(lookupPath.parents().lastOrNull() === document) {
+      "'${lookupPath.path()}' is not a field of the '${document.indexName()}' document"
+    }
+    id
+      .takeUnless { it.isNullOrBlank() }
       ?.also {
         +TermsQuery.of { b ->
           b.field(path())
-            .terms { tb -> tb.value(terms.mapNotNull { term -> toFieldValue(term) }) }
+            .terms { tb ->
+              tb.lookup { lookup ->
+                lookup.index(document.indexName()).id(it).path(lookupPath.path()).routing(routing)
+              }
+            }
             .apply(block)
         }
       }
@@ -1737,8 +1984,8 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
    */
   fun <T : Comparable<T>> T?.mustBeBetween(from: Metamodel<T>, to: Metamodel<T>) {
     this?.also {
-      +from.toRangeQuery(Range.atMost(this))
-      +to.toRangeQuery(Range.atLeast(this))
+      +from.toRangeQuery(Range.atMost(this), options.dateRounding)
+      +to.toRangeQuery(Range.atLeast(this), options.dateRounding)
     }
   }
 
@@ -1750,7 +1997,7 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
     when (range) {
       null -> Unit
       range if (!range.hasLowerBound() && !range.hasUpperBound()) -> +MatchNoneQuery.of { it }
-      else -> +toRangeQuery(range)
+      else -> +toRangeQuery(range, options.dateRounding)
     }
   }
 
@@ -1785,9 +2032,205 @@ class QueryVariantDsl(private val add: (queryVariant: QueryVariant) -> Unit) {
   infix fun <T : Comparable<T>> Metamodel<T>.lowerThan(value: T?) {
     value?.also { range(Range.lessThan(it)) }
   }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with a [DateMath] lower bound, resolved by Elasticsearch
+   */
+  infix fun DateField<*>.greaterThanEqualTo(value: DateMath) {
+    +dateMathRange(gte = value)
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with a [DateMath] lower bound, resolved by Elasticsearch
+   */
+  infix fun DateField<*>.greaterThan(value: DateMath) {
+    +dateMathRange(gt = value)
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with a [DateMath] upper bound, resolved by Elasticsearch
+   */
+  infix fun DateField<*>.lowerThanEqualTo(value: DateMath) {
+    +dateMathRange(lte = value)
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with a [DateMath] upper bound, resolved by Elasticsearch
+   */
+  infix fun DateField<*>.lowerThan(value: DateMath) {
+    +dateMathRange(lt = value)
+  }
+
+  /**
+   * creates
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * matching dates from [from] included to [to] excluded, both resolved by Elasticsearch
+   */
+  fun DateField<*>.between(from: DateMath, to: DateMath) {
+    +dateMathRange(gte = from, lt = to)
+  }
+
+  private fun DateField<*>.dateMathRange(
+    gt: DateMath? = null,
+    gte: DateMath? = null,
+    lt: DateMath? = null,
+    lte: DateMath? = null,
+  ) =
+    RangeBounds(
+        field = path(),
+        gt = gt?.let { JsonData.of(it.expression) },
+        gte = gte?.let { JsonData.of(it.expression) },
+        lt = lt?.let { JsonData.of(it.expression) },
+        lte = lte?.let { JsonData.of(it.expression) },
+        format = null,
+      )
+      .toRangeQuery()
+
+  // CONSTANT FRAGMENTS
+
+  /**
+   * Adds the queries [block] adds, built once per [key] and then reused from
+   * [QueryDslOptions.fragmentCache], so that constant filters are not rebuilt for every request:
+   * ```kotlin
+   * constant(document.tenant, tenantId) {
+   *   document.tenant term tenantId
+   *   document.deleted term false
+   * }
+   * ```
+   *
+   * The key has to identify everything [block] depends on, usually the metamodels and values it
+   * queries. Metamodels are keyed by identity rather than by path, since fields at the same path of
+   * two documents can build different queries (date formats, constant keyword values). Without a
+   * cache, [block] runs every time.
+   */
+  fun constant(vararg key: Any?, block: QueryVariantDsl.() -> Unit) {
+    constantFragment(key.toList(), block)
+  }
+
+  /**
+   * creates a
+   * [Term query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-term-query)
+   * built once per field and value, see [constant]
+   */
+  infix fun <T> Metamodel<T>.constantTerm(value: T?) {
+    value ?: return
+    val field = this
+    constantFragment(ConstantTermKey(field, value)) { field.termUnchecked(value) }
+  }
+
+  private fun constantFragment(key: Any, block: QueryVariantDsl.() -> Unit) {
+    val cache = options.fragmentCache
+    if (cache == null) {
+      block()
+      return
+    }
+    cache
+      .getOrBuild(key) {
+        val queries = ArrayList<Query>()
+        collecting { queries.add(it) }.apply(block)
+        queries
+      }
+      .forEach(addQuery)
+  }
+
+  // PREPARED QUERY PARAMETERS
+
+  /**
+   * creates a
+   * [Term query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-term-query)
+   * on the value bound to [parameter] when a [PreparedQuery] is rendered
+   */
+  infix fun <T> Metamodel<T>.term(parameter: Parameter<T>) {
+    val marker = FieldValue.of(parameter.marker(this, ParameterKind.TERM))
+    +TermQuery.of { it.field(path()).value(marker) }
+  }
+
+  /**
+   * creates a
+   * [Terms query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-terms-query)
+   * on the values bound to [parameter] when a [PreparedQuery] is rendered
+   */
+  infix fun <T> Metamodel<T>.terms(parameter: Parameter<T>) {
+    val marker = FieldValue.of(parameter.marker(this, ParameterKind.TERMS))
+    +TermsQuery.of { b -> b.field(path()).terms { it.value(listOf(marker)) } }
+  }
+
+  /**
+   * creates a
+   * [Match query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-match-query)
+   * on the value bound to [parameter] when a [PreparedQuery] is rendered
+   */
+  infix fun <T> Metamodel<T>.match(parameter: Parameter<T>) {
+    val marker = FieldValue.of(parameter.marker(this, ParameterKind.MATCH))
+    +MatchQuery.of { it.field(path()).query(marker) }
+  }
+
+  /**
+   * creates a
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with the value bound to [parameter] as lower bound when a [PreparedQuery] is rendered
+   */
+  infix fun <T> Metamodel<T>.greaterThanEqualTo(parameter: Parameter<T>) {
+    +parameterRange(parameter, ParameterKind.LOWER_BOUND) { copy(gte = it) }
+  }
+
+  /**
+   * creates a
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with the value bound to [parameter] as lower bound when a [PreparedQuery] is rendered
+   */
+  infix fun <T> Metamodel<T>.greaterThan(parameter: Parameter<T>) {
+    +parameterRange(parameter, ParameterKind.LOWER_BOUND) { copy(gt = it) }
+  }
+
+  /**
+   * creates a
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with the value bound to [parameter] as upper bound when a [PreparedQuery] is rendered
+   */
+  infix fun <T> Metamodel<T>.lowerThanEqualTo(parameter: Parameter<T>) {
+    +parameterRange(parameter, ParameterKind.UPPER_BOUND) { copy(lte = it) }
+  }
+
+  /**
+   * creates a
+   * [Range query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-range-query)
+   * with the value bound to [parameter] as upper bound when a [PreparedQuery] is rendered
+   */
+  infix fun <T> Metamodel<T>.lowerThan(parameter: Parameter<T>) {
+    +parameterRange(parameter, ParameterKind.UPPER_BOUND) { copy(lt = it) }
+  }
+
+  private fun Metamodel<*>.parameterRange(
+    parameter: Parameter<*>,
+    kind: ParameterKind,
+    bound: RangeBounds.(JsonData) -> RangeBounds,
+  ) =
+    RangeBounds(
+        field = path(),
+        gt = null,
+        gte = null,
+        lt = null,
+        lte = null,
+        format = if (parameter.isDate) DateFormat.epoch_millis.pattern else null,
+      )
+      .bound(JsonData.of(parameter.marker(this, kind)))
+      .toRangeQuery()
 }
 
 // Range query utilities moved to RangeQueryUtils.kt for version-specific implementations
 
-private fun BoolQuery.isEmpty(): Boolean =
+/** Key of the fragment cached by [QueryVariantDsl.constantTerm], [field] compared by identity. */
+private data class ConstantTermKey(val field: Metamodel<*>, val value: Any)
+
+@PublishedApi
+internal fun BoolQuery.isEmpty(): Boolean =
   must().isEmpty() && mustNot().isEmpty() && should().isEmpty() && filter().isEmpty()
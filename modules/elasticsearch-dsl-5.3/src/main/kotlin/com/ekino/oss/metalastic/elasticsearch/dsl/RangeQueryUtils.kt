@@ -8,18 +8,22 @@ import co.elastic.clients.json.JsonData
 import com.ekino.oss.metalastic.core.Metamodel
 import com.google.common.collect.BoundType
 import com.google.common.collect.Range
+import java.time.Duration
 
 /** Range query utilities for elasticsearch-java 8.5-8.13 (classic RangeQuery API) */
-internal fun <T> Metamodel<*>.toRangeQuery(range: Range<out Comparable<T>>) =
+internal fun <T> Metamodel<*>.toRangeQuery(
+  range: Range<out Comparable<T>>,
+  rounding: Duration? = null,
+) =
   RangeQuery.of { rangeQuery ->
     rangeQuery.field(path())
     if (range.hasLowerBound()) {
       val operator = range.toLowerOperator()
-      rangeQuery.withBound(range.lowerEndpoint(), operator)
+      rangeQuery.withBound(range.lowerEndpoint(), operator, upper = false, rounding)
     }
     if (range.hasUpperBound()) {
       val operator = range.toUpperOperator()
-      rangeQuery.withBound(range.upperEndpoint(), operator)
+      rangeQuery.withBound(range.upperEndpoint(), operator, upper = true, rounding)
     }
     rangeQuery
   }
@@ -47,9 +51,24 @@ internal fun Range<*>.toUpperOperator(): (RangeQuery.Builder, JsonData) -> Range
 internal fun <T> RangeQuery.Builder.withBound(
   value: Comparable<T>,
   operator: (RangeQuery.Builder, JsonData) -> RangeQuery.Builder,
+  upper: Boolean,
+  rounding: Duration? = null,
 ) {
-  toJsonData(value)?.let { (jsonData, dateFormat) ->
+  toJsonData(value, upper, rounding)?.let { (jsonData, dateFormat) ->
     operator.invoke(this, jsonData)
     dateFormat?.also { format(dateFormat.pattern) }
   }
 }
+
+internal fun RangeQuery.toRangeBounds(): RangeBounds? =
+  RangeBounds(field(), gt(), gte(), lt(), lte(), format())
+
+internal fun RangeBounds.toRangeQuery(): RangeQuery = RangeQuery.of {
+  it.field(field).gt(gt).gte(gte).lt(lt).lte(lte).format(format)
+}
+
+/** Returns the field of a range query without `boost` nor `_name`, `null` otherwise. */
+internal fun RangeQuery.unboostedField(): String? =
+  takeIf { it.boost() == null && it.queryName() == null }?.field()
+
+internal fun RangeQuery.rangeField(): String? = field()
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.FollowListTestDocument
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
+import com.google.common.collect.Range
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import java.time.Duration
+import java.time.Instant
+
+/** Tests for bool queries written straight to JSON. */
+class JsonQueryDslTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+    val document = FollowListTestDocument
+    val instant = Instant.parse("2024-03-01T10:15:30.123Z")
+    val missing: String? = null
+
+    fun built(options: QueryDslOptions = QueryDslOptions.DEFAULT, block: BoolQueryDsl.() -> Unit) =
+      Query(BoolQuery.of { it.boolQueryDsl(options, block) }).jsonKey()
+
+    should("write the same JSON as the serialized query") {
+      val json = boolQueryJson {
+        must + { meta.name match "laptop" }
+        filter +
+          {
+            meta.status term TestStatus.ACTIVE
+            meta.country terms listOf("France", "Belgium")
+            meta.price greaterThanEqualTo 10.5
+            meta.age lowerThan 65
+            meta.views greaterThan 1000L
+            meta.rating lowerThanEqualTo 4.5f
+            meta.createdAt.range(Range.closedOpen(instant, instant.plusSeconds(60)))
+            meta.active term true
+            meta.title.exist()
+          }
+        should + { meta.category prefix "boo" }
+        mustNot + { meta.category term "archived" }
+        minimumShouldMatch(1)
+      }
+
+      json shouldBe
+        built {
+          must + { meta.name match "laptop" }
+          filter +
+            {
+              meta.status term TestStatus.ACTIVE
+              meta.country.terms(listOf("France", "Belgium"))
+              meta.price greaterThanEqualTo 10.5
+              meta.age lowerThan 65
+              meta.views greaterThan 1000L
+              meta.rating lowerThanEqualTo 4.5f
+              meta.createdAt.range(Range.closedOpen(instant, instant.plusSeconds(60)))
+              meta.active term true
+              meta.title.exist()
+            }
+          should + { meta.category prefix "boo" }
+          mustNot + { meta.category term "archived" }
+          minimumShouldMatch(1)
+        }
+    }
+
+    should("write nested, bool and empty clauses as the DSL does") {
+      val json = boolQueryJson {
+        filter +
+          {
+            meta.reviews.nested { must + { meta.reviews.author term "alice" } }
+            document.owner.nested { filter + { document.owner.score greaterThan 2.0 } }
+            bool { should + { meta.name term missing } }
+            bool {
+              should +
+                {
+                  meta.country term "France"
+                  meta.category prefix " "
+                }
+            }
+            meta.price.range(Range.all())
+            meta.country terms emptyList()
+          }
+      }
+
+      json shouldBe
+        built {
+          filter +
+            {
+              meta.reviews.nested { must + { meta.reviews.author term "alice" } }
+              document.owner.nested { filter + { document.owner.score greaterThan 2.0 } }
+              bool { should + { meta.name term missing } }
+              bool {
+                should +
+                  {
+                    meta.country term "France"
+                    meta.category prefix " "
+                  }
+              }
+              meta.price.range(Range.all())
+              meta.country.terms(emptyList<String>())
+            }
+        }
+      json shouldBe """{"bool":{"filter":[""" +
+        """{"nested":{"path":"reviews","query":{"bool":{"must":[""" +
+        """{"term":{"reviews.author":{"value":"alice"}}}]}}}},""" +
+        """{"bool":{"filter":[{"range":{"owner.score":{"gt":2.0}}}]}},""" +
+        """{"bool":{"should":[{"term":{"country":{"value":"France"}}}]}},""" +
+        """{"match_none":{}}]}}"""
+    }
+
+    should("escape strings as the JSON-P generator does") {
+      val value = "quote\" backslash\\ tab\t newline\n form\u000C bell\u0007 accent é"
+
+      boolQueryJson { filter + { meta.name term value } } shouldBe
+        built { filter + { meta.name term value } }
+    }
+
+    should("round date bounds with the configured date rounding") {
+      val options = QueryDslOptions(dateRounding = Duration.ofMinutes(1))
+
+      boolQueryJson(options) {
+        filter +
+          {
+            meta.createdAt greaterThanEqualTo instant
+            meta.createdAt lowerThan instant
+          }
+      } shouldBe
+        built(options) {
+          filter +
+            {
+              meta.createdAt greaterThanEqualTo instant
+              meta.createdAt lowerThan instant
+            }
+        }
+    }
+
+    should("write an empty bool query without clauses") {
+      boolQueryJson {} shouldBe """{"bool":{}}"""
+    }
+
+    should("reject options rewriting the built query") {
+      shouldThrow<IllegalArgumentException> {
+        boolQueryJson(QueryDslOptions(canonicalOrder = true)) {
+          filter + { meta.active term true }
+        }
+      }
+    }
+
+    should("reject terms exceeding the maximum per query") {
+      shouldThrow<IllegalArgumentException> {
+        boolQueryJson(QueryDslOptions(maxTermsPerQuery = 2)) {
+          filter + { meta.country terms listOf("France", "Belgium", "Spain") }
+        }
+      }
+    }
+  })
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.FollowListTestDocument
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.shouldNotBe
+
+/** Tests for the structural fingerprints of built queries. */
+class QueryFingerprintTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+
+    fun search(status: TestStatus, countries: List<String>, minAge: Int, text: String) =
+      fingerprintedBoolQuery {
+        must + { meta.name match text }
+        filter +
+          {
+            meta.status term status
+            meta.country.terms(countries)
+            meta.age greaterThanEqualTo minAge
+            meta.reviews.nested { filter + { meta.reviews.author term "alice" } }
+          }
+      }
+
+    should("give the same shape to queries differing only by their values") {
+      val first = search(TestStatus.ACTIVE, listOf("France"), 18, "laptop")
+      val second = search(TestStatus.INACTIVE, listOf("Belgium", "Spain"), 21, "phone")
+
+      second.fingerprint.shape shouldBe first.fingerprint.shape
+      second.fingerprint.exact shouldNotBe first.fingerprint.exact
+    }
+
+    should("give the same fingerprints to the same query") {
+      search(TestStatus.ACTIVE, listOf("France"), 18, "laptop").fingerprint shouldBe
+        search(TestStatus.ACTIVE, listOf("France"), 18, "laptop").fingerprint
+    }
+
+    should("match the fingerprint computed from the built query") {
+      val (query, fingerprint) = search(TestStatus.ACTIVE, listOf("France"), 18, "laptop")
+
+      query.fingerprint() shouldBe fingerprint
+      Query(query).fingerprint() shouldBe fingerprint
+    }
+
+    should("ignore the order of clauses and of terms values") {
+      val first = fingerprintedBoolQuery {
+        filter +
+          {
+            meta.active term true
+            meta.country.terms(listOf("France", "Belgium"))
+          }
+      }
+      val second = fingerprintedBoolQuery {
+        filter +
+          {
+            meta.country.terms(listOf("Belgium", "France"))
+            meta.active term true
+          }
+      }
+
+      second.fingerprint shouldBe first.fingerprint
+    }
+
+    should("distinguish paths, occurrences and bounds in the shape") {
+      fun shapeOf(block: BoolQueryDsl.() -> Unit) =
+        fingerprintedBoolQuery(block = block).fingerprint.shape
+
+      val shapes =
+        listOf(
+          shapeOf { filter + { meta.country term "France" } },
+          shapeOf { filter + { meta.category term "France" } },
+          shapeOf { mustNot + { meta.country term "France" } },
+          shapeOf { filter + { meta.country match "France" } },
+          shapeOf { filter + { meta.age greaterThan 18 } },
+          shapeOf { filter + { meta.age greaterThanEqualTo 18 } },
+          shapeOf { filter + { bool { should + { meta.country term "France" } } } },
+        )
+
+      shapes.toSet().size shouldBe shapes.size
+    }
+
+    should("hash range bounds and terms lookups as values") {
+      val followList = FollowListTestDocument
+
+      fun fingerprintOf(minAge: Int, maxAge: Int, userId: String) =
+        fingerprintedBoolQuery {
+            filter +
+              {
+                meta.age greaterThanEqualTo minAge
+                meta.age lowerThan maxAge
+                meta.country.termsLookup(followList, userId, followList.followed)
+              }
+          }
+          .fingerprint
+
+      val first = fingerprintOf(18, 65, "user-1")
+      val others =
+        listOf(
+          fingerprintOf(21, 65, "user-1"),
+          fingerprintOf(18, 60, "user-1"),
+          fingerprintOf(18, 65, "user-2"),
+        )
+
+      others.map { it.shape }.toSet() shouldBe setOf(first.shape)
+      (others.map { it.exact } + first.exact).toSet().size shouldBe others.size + 1
+    }
+
+    should("fingerprint the queries of compound queries built by the DSL") {
+      val options = QueryDslOptions(fragmentCache = QueryFragmentCache())
+      val (query, fingerprint) =
+        fingerprintedBoolQuery(options) {
+          filter +
+            {
+              shouldAtLeastOneOf(listOf("France", "Spain")) { meta.country term it }
+              disMax {
+                meta.name match "laptop"
+                meta.title match "laptop"
+              }
+              constant("active") { meta.active term true }
+            }
+        }
+
+      fingerprint shouldBe query.fingerprint()
+    }
+
+    should("fingerprint queries rewritten by the options") {
+      val options = QueryDslOptions(canonicalOrder = true)
+      val (query, fingerprint) =
+        fingerprintedBoolQuery(options) {
+          filter +
+            {
+              meta.country term "France"
+              meta.active term true
+            }
+        }
+
+      fingerprint shouldBe query.fingerprint()
+      fingerprint shouldBe
+        BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  meta.active term true
+                  meta.country term "France"
+                }
+            }
+          }
+          .fingerprint()
+    }
+  })
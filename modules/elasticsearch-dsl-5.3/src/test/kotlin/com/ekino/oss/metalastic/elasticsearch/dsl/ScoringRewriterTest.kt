@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.FollowListTestDocument
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.should
+import io.kotest.matchers.shouldBe
+
+/** Tests for the demotion of non-scoring clauses to filter context. */
+class ScoringRewriterTest :
+  ShouldSpec({
+    val document = FollowListTestDocument
+
+    should("move exact-match clauses on keyword, numeric and boolean fields to filter") {
+      val rewrite =
+        BoolQuery.of {
+            it.boolQueryDsl {
+              must +
+                {
+                  document.owner.author match "alice"
+                  document.owner.author term "alice"
+                  document.owner.score greaterThan 2.0
+                  document.owner.verified.exist()
+                }
+            }
+          }
+          .demoteNonScoringClauses(document)
+
+      rewrite.demoted shouldBe
+        listOf(
+          DemotedClause("owner.author", Query.Kind.Term),
+          DemotedClause("owner.score", Query.Kind.Range),
+          DemotedClause("owner.verified", Query.Kind.Exists),
+        )
+      rewrite.constantScore shouldBe false
+      rewrite.query.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "must": [{"match": {"owner.author": {"query": "alice"}}}],
+              "filter": [
+                {"term": {"owner.author": {"value": "alice"}}},
+                {"range": {"owner.score": {"gt": 2.0}}},
+                {"exists": {"field": "owner.verified"}}
+              ]
+            }
+          }
+        """
+        )
+    }
+
+    should("wrap a query left without scoring clauses in constant_score") {
+      val rewrite =
+        BoolQuery.of {
+            it.boolQueryDsl {
+              must + { bool { must + { document.owner.verified term true } } }
+              mustNot + { document.owner.author term "bob" }
+            }
+          }
+          .demoteNonScoringClauses(document)
+
+      rewrite.constantScore shouldBe true
+      rewrite.query.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "constant_score": {
+              "filter": {
+                "bool": {
+                  "must": [{"bool": {"filter": [{"term": {"owner.verified": {"value": true}}}]}}],
+                  "must_not": [{"term": {"owner.author": {"value": "bob"}}}]
+                }
+              }
+            }
+          }
+        """
+        )
+    }
+
+    should("leave clauses on fields unknown to the document") {
+      val rewrite =
+        BoolQuery.of { it.boolQueryDsl { must + { ComprehensiveTestMetamodel.country term "FR" } } }
+          .demoteNonScoringClauses(document)
+
+      rewrite.rewritten shouldBe false
+    }
+  })
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+@file:OptIn(InternalMetalasticApi::class)
+
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import com.ekino.oss.metalastic.core.InternalMetalasticApi
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import java.time.Instant
+
+/** Tests for the conversion of query values to Elasticsearch field values. */
+class ValueConvertersTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+
+    should("reuse one field value per enum constant") {
+      TestStatus.ACTIVE.toFieldValue() shouldBeSameInstanceAs TestStatus.ACTIVE.toFieldValue()
+      TestStatus.ACTIVE.toFieldValue()?.stringValue() shouldBe TestStatus.ACTIVE.toString()
+    }
+
+    should("convert values of mixed types in order, skipping nulls and blank strings") {
+      val values = listOf("a", " ", null, 1, 2L, 1.5f, true, TestStatus.ACTIVE)
+
+      meta.country.toFieldValues(values).map { it._get() } shouldBe
+        listOf("a", 1L, 2L, 1.5, true, TestStatus.ACTIVE.toString())
+    }
+
+    should("keep the converter of the last value class on the field") {
+      val field = meta.statuses
+
+      field.toFieldValue(TestStatus.ACTIVE)?.stringValue() shouldBe TestStatus.ACTIVE.toString()
+      val kept =
+        field.valueConverter(TestStatus::class.java, Any::class.java) { error("resolved again") }
+
+      field.toFieldValues(listOf(TestStatus.PENDING, TestStatus.DELETED)).map { it._get() } shouldBe
+        listOf(TestStatus.PENDING.toString(), TestStatus.DELETED.toString())
+      field.valueConverter(TestStatus::class.java, Any::class.java) {
+        error("resolved again")
+      } shouldBeSameInstanceAs kept
+    }
+
+    should("convert primitive arrays without boxing them into a list first") {
+      longArrayOf(3, Long.MIN_VALUE).toFieldValues().map { it._get() } shouldBe
+        listOf(3L, Long.MIN_VALUE)
+      intArrayOf(-1, Int.MAX_VALUE).toFieldValues().map { it._get() } shouldBe
+        listOf(-1L, Int.MAX_VALUE.toLong())
+      longArrayOf().toFieldValues() shouldBe emptyList()
+    }
+
+    should("sort and de-duplicate a copy of primitive arrays") {
+      val longs = longArrayOf(3, -1, 3, Long.MIN_VALUE, -1)
+      val ints = intArrayOf(2, 2, 2)
+
+      longs.sortedDistinct() shouldBe longArrayOf(Long.MIN_VALUE, -1, 3)
+      longs shouldBe longArrayOf(3, -1, 3, Long.MIN_VALUE, -1)
+      ints.sortedDistinct() shouldBe intArrayOf(2)
+      intArrayOf(5, 1).sortedDistinct() shouldBe intArrayOf(1, 5)
+      intArrayOf().sortedDistinct() shouldBe intArrayOf()
+    }
+
+    should("format temporal values with the date formats of date fields") {
+      val instant = Instant.parse("2024-03-01T10:15:30Z")
+
+      meta.createdAt.toFieldValues(listOf(instant, null)).map { it._get() } shouldBe
+        listOf("1709288130000")
+    }
+  })
@@ -5,6 +5,7 @@ package com.ekino.oss.metalastic.elasticsearch.dsl.query
 
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
 import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.QueryDslOptions
 import com.ekino.oss.metalastic.elasticsearch.dsl.boolQueryDsl
 import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
 import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
@@ -251,6 +252,40 @@ class BoolQueriesTest :
           )
       }
 
+      should("nest should clauses beyond maxClauseCount") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl(QueryDslOptions(maxClauseCount = 2)) {
+          filter + { shouldAtLeastOneOf(listOf("FR", "BE", "DE")) { meta.country term it } }
+        }
+
+        val json = Query(builder.build()).toJsonString()
+        json should
+          jsonLenientMatcher(
+            """
+          {
+            "bool": {
+              "filter": [
+                {
+                  "bool": {
+                    "should": [
+                      {"bool": {"should": [
+                        {"term": {"country": {"value": "FR"}}},
+                        {"term": {"country": {"value": "BE"}}}
+                      ]}},
+                      {"bool": {"should": [
+                        {"term": {"country": {"value": "DE"}}}
+                      ]}}
+                    ]
+                  }
+                }
+              ]
+            }
+          }
+        """
+          )
+      }
+
       should("do nothing with empty collection") {
         val builder = BoolQuery.Builder()
 
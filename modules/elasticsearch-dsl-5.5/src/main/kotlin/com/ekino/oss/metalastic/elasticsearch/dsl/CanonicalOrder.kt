@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.FieldValue
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.NestedQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery
+
+/**
+ * Returns a copy of this bool query with the clauses of each occurrence, and the values of its
+ * terms queries, in a canonical order, enabled through [QueryDslOptions.canonicalOrder].
+ *
+ * Clause order does not change which documents match nor how they are scored, but it changes the
+ * request body, and so the key of the shard request cache and of any client-side cache. Bool and
+ * nested clauses are sorted recursively.
+ */
+internal fun BoolQuery.canonical(): BoolQuery =
+  withClauses(
+    must = must().canonical(),
+    filter = filter().canonical(),
+    should = should().canonical(),
+    mustNot = mustNot().canonical(),
+  )
+
+private fun List<Query>.canonical(): List<Query> {
+  val clauses = map { it.canonical() }
+  return if (clauses.size > 1) clauses.sortedBy { it.jsonKey() } else clauses
+}
+
+private fun Query.canonical(): Query =
+  when {
+    isBool -> Query(bool().canonical())
+    isNested -> Query(nested().canonical())
+    isTerms -> Query(terms().canonical())
+    else -> this
+  }
+
+private fun NestedQuery.canonical(): NestedQuery =
+  NestedQuery.of {
+    it
+      .path(path())
+      .query(query().canonical())
+      .scoreMode(scoreMode())
+      .innerHits(innerHits())
+      .ignoreUnmapped(ignoreUnmapped())
+      .boost(boost())
+      .queryName(queryName())
+  }
+
+/** Sorts the values of a terms query, leaving terms lookups as they are. */
+private fun TermsQuery.canonical(): TermsQuery {
+  val terms = terms()
+  if (!terms.isValue || terms.value().size < 2) return this
+  return TermsQuery.of {
+    it
+      .field(field())
+      .terms { t -> t.value(terms.value().sortedWith(FIELD_VALUE_ORDER)) }
+      .boost(boost())
+      .queryName(queryName())
+  }
+}
+
+private val FIELD_VALUE_ORDER: Comparator<FieldValue> =
+  compareBy<FieldValue> { it._kind() }.thenBy { it._get()?.toString() }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.FieldValue
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.QueryVariant
+import com.ekino.oss.metalastic.core.Metamodel
+import java.time.Duration
+
+/**
+ * Options of the query DSL, passed to [boolQueryDsl] and inherited by every nested [BoolQueryDsl]
+ * and [QueryVariantDsl].
+ *
+ * They keep the queries built from large value sets within the cluster limits:
+ * - a terms query with more than [maxTermsPerQuery] values is first offered to [termsOverflow],
+ *   then split into several terms queries combined in a bool query matching any of them
+ * - the bool queries the DSL builds on its own ([QueryVariantDsl.shouldAtLeastOneOf] and split
+ *   terms queries) hold at most [maxClauseCount] clauses each, larger sets being nested
+ *
+ * ```kotlin
+ * BoolQuery.of {
+ *   it.boolQueryDsl(QueryDslOptions(maxTermsPerQuery = 10_000)) {
+ *     filter + { document.id terms ids }
+ *   }
+ * }
+ * ```
+ *
+ * @param maxTermsPerQuery largest number of values in a single terms query. Defaults to 65 536,
+ *   the default `index.max_terms_count` of Elasticsearch.
+ * @param maxClauseCount largest number of clauses the DSL puts in a bool query it builds. Defaults
+ *   to 1 024, the historical default of `indices.query.bool.max_clause_count`.
+ * @param termsOverflow replacement for terms queries above [maxTermsPerQuery], e.g. a terms lookup
+ *   against a side index. Splitting applies when it is absent or returns `null`.
+ * @param nestedGrouping groups the clauses on the same nested path into one nested query when
+ *   [boolQueryDsl] completes. Clauses are left as written when absent.
+ * @param dateRounding rounds the dates and instants of range queries to a multiple of this duration
+ *   since the epoch, so that requests sent within the same period are identical and can share cache
+ *   entries. Lower bounds are rounded down and upper bounds up, widening the range by less than a
+ *   period on each side. Values are sent as they are when absent.
+ * @param canonicalOrder sorts the clauses of every occurrence and the values of terms queries when
+ *   [boolQueryDsl] completes, so that the same filters written in a different order produce the
+ *   same request.
+ * @param foldConstants replaces `term`, `terms` and `prefix` queries on constant keyword fields of
+ *   known value by `match_all` or `match_none`, and folds these through the bool query when
+ *   [boolQueryDsl] completes, see [matchesNothing].
+ * @param fragmentCache keeps the queries of [QueryVariantDsl.constant] blocks and
+ *   [QueryVariantDsl.constantTerm] clauses across requests. They are built every time when absent.
+ */
+data class QueryDslOptions(
+  val maxTermsPerQuery: Int = DEFAULT_MAX_TERMS_PER_QUERY,
+  val maxClauseCount: Int = DEFAULT_MAX_CLAUSE_COUNT,
+  val termsOverflow: TermsOverflow? = null,
+  val nestedGrouping: NestedGrouping? = null,
+  val dateRounding: Duration? = null,
+  val canonicalOrder: Boolean = false,
+  val foldConstants: Boolean = false,
+  val fragmentCache: QueryFragmentCache? = null,
+) {
+
+  init {
+    require(maxTermsPerQuery > 0) { "maxTermsPerQuery must be positive, was $maxTermsPerQuery" }
+    require(maxClauseCount > 1) { "maxClauseCount must be at least 2, was $maxClauseCount" }
+    require(dateRounding == null || dateRounding.toMillis() > 0) {
+      "dateRounding must be at least one millisecond, was $dateRounding"
+    }
+  }
+
+  /** Whether [boolQueryDsl] rewrites the bool query built by its block. */
+  @PublishedApi
+  internal val rewritesBuiltQuery: Boolean
+    get() = nestedGrouping != null || canonicalOrder || foldConstants
+
+  /** Applies the rewrites enabled by these options to the bool query built by [boolQueryDsl]. */
+  @PublishedApi
+  internal fun rewrite(bool: BoolQuery): BoolQuery =
+    bool
+      .let { if (foldConstants) it.foldConstants() else it }
+      .let { nestedGrouping?.group(it) ?: it }
+      .let { if (canonicalOrder) it.canonical() else it }
+
+  companion object {
+    const val DEFAULT_MAX_TERMS_PER_QUERY = 65_536
+    const val DEFAULT_MAX_CLAUSE_COUNT = 1_024
+
+    val DEFAULT = QueryDslOptions()
+  }
+}
+
+/** Replaces a terms query whose values exceed [QueryDslOptions.maxTermsPerQuery]. */
+fun interface TermsOverflow {
+
+  /**
+   * Returns the query to use instead of a terms query on [field] with [values], or `null` to split
+   * the values into several terms queries.
+   */
+  fun replace(field: Metamodel<*>, values: List<FieldValue>): QueryVariant?
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.FieldValue
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.ConstantScoreQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.DisMaxQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.ExistsQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.IdsQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchAllQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchNoneQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchPhraseQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.NestedQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.PrefixQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import co.elastic.clients.elasticsearch._types.query_dsl.QueryBase
+import co.elastic.clients.elasticsearch._types.query_dsl.QueryVariant
+import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.RegexpQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.TermQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.WildcardQuery
+import co.elastic.clients.json.JsonData
+import co.elastic.clients.json.JsonpSerializable
+import java.util.IdentityHashMap
+
+/**
+ * Fingerprint of a query, to group requests by query shape and to key caches.
+ *
+ * - [shape] hashes the structure of the query: query kinds, occurrences, metamodel paths and
+ *   options such as `operator` or `score_mode`, but not the literal values, so `status term ACTIVE`
+ *   and `status term INACTIVE` have the same shape.
+ * - [exact] also hashes the values, `boost` and `_name`, so it differs whenever the request does.
+ *
+ * Both are stable across JVMs and restarts. Clauses of the same occurrence of a bool query are
+ * combined regardless of their order, as are the values of a terms query.
+ *
+ * Fingerprints are computed from the query objects without serializing the query. Only typed
+ * `date`, `number` and `term` range queries, which the DSL does not build, and leaf queries other
+ * than `term`, `terms`, `match`, `match_phrase`, `prefix`, `wildcard`, `regexp`, `exists`, `range`
+ * and `ids` are hashed from their JSON.
+ */
+data class QueryFingerprint(val shape: Long, val exact: Long) {
+
+  override fun toString(): String = "%016x/%016x".format(shape, exact)
+}
+
+/**
+ * A bool query built by [fingerprintedBoolQuery] with its [fingerprint], computed as clauses were
+ * added.
+ */
+data class FingerprintedQuery(val query: BoolQuery, val fingerprint: QueryFingerprint)
+
+/**
+ * Builds the bool query described by [block] as [boolQueryDsl] does and fingerprints it along the
+ * way: each clause is hashed once when the DSL adds it, then combined into its parent.
+ *
+ * ```kotlin
+ * val (query, fingerprint) = fingerprintedBoolQuery {
+ *   filter + { document.status term status }
+ * }
+ * slowQueries.record(fingerprint.shape, took)
+ * ```
+ */
+fun fingerprintedBoolQuery(
+  options: QueryDslOptions = QueryDslOptions.DEFAULT,
+  block: BoolQueryDsl.() -> Unit,
+): FingerprintedQuery {
+  val fingerprints = FingerprintRecorder()
+  val query = BoolQuery.Builder().boolQueryDsl(options, fingerprints, block).build()
+  return FingerprintedQuery(query, fingerprints.fingerprintOf(query))
+}
+
+/** Returns the fingerprint of this query, hashing every clause, see [QueryFingerprint]. */
+fun Query.fingerprint(): QueryFingerprint = computeFingerprint(_get()) { it.fingerprint() }
+
+/** Returns the fingerprint of this bool query, see [QueryFingerprint]. */
+fun BoolQuery.fingerprint(): QueryFingerprint = computeFingerprint(this) { it.fingerprint() }
+
+/**
+ * Fingerprints of the clauses added while building one query, by identity, so that each clause is
+ * hashed once, when it is added, and then only combined into its parents.
+ */
+@PublishedApi
+internal class FingerprintRecorder {
+  private val fingerprints = IdentityHashMap<Any, QueryFingerprint>()
+
+  fun record(variant: Any) {
+    fingerprintOf(variant)
+  }
+
+  fun fingerprintOf(variant: Any): QueryFingerprint =
+    fingerprints.getOrPut(variant) { computeFingerprint(variant) { fingerprintOf(it._get()) } }
+}
+
+/** Hashes [variant], fingerprinting the sub-queries of compound queries with [child]. */
+private fun computeFingerprint(variant: Any, child: (Query) -> QueryFingerprint): QueryFingerprint {
+  val kind = (variant as? QueryVariant)?._queryKind()?.jsonValue() ?: variant.javaClass.name
+  val hash = FingerprintHash(kind)
+  (variant as? QueryBase)?.also {
+    hash.value(it.boost()?.toRawBits()?.toLong() ?: NULL_HASH)
+    hash.value(it.queryName())
+  }
+  when (variant) {
+    is BoolQuery -> {
+      hash.clauses("filter", variant.filter(), child)
+      hash.clauses("must", variant.must(), child)
+      hash.clauses("must_not", variant.mustNot(), child)
+      hash.clauses("should", variant.should(), child)
+      hash.structure(variant.minimumShouldMatch())
+    }
+    is NestedQuery -> {
+      hash.structure(variant.path())
+      hash.structure(variant.scoreMode()?.jsonValue())
+      hash.merge(child(variant.query()))
+    }
+    is ConstantScoreQuery -> hash.merge(child(variant.filter()))
+    is DisMaxQuery -> {
+      hash.clauses("queries", variant.queries(), child)
+      hash.value(variant.tieBreaker()?.toRawBits() ?: NULL_HASH)
+    }
+    is TermQuery -> {
+      hash.structure(variant.field())
+      hash.structure(variant.caseInsensitive()?.toString())
+      hash.value(variant.value().hash64())
+    }
+    is TermsQuery -> {
+      hash.structure(variant.field())
+      val terms = variant.terms()
+      if (terms.isValue) {
+        hash.value(terms.value().sumOf { mix(it.hash64()) })
+      } else {
+        val lookup = terms.lookup()
+        hash.structure(lookup.index())
+        hash.structure(lookup.path())
+        hash.value(lookup.id())
+        hash.value(lookup.routing())
+      }
+    }
+    is MatchQuery -> {
+      hash.structure(variant.field())
+      hash.structure(variant.operator()?.jsonValue())
+      hash.structure(variant.fuzziness())
+      hash.structure(variant.minimumShouldMatch())
+      hash.structure(variant.analyzer())
+      hash.value(variant.query().hash64())
+    }
+    is MatchPhraseQuery -> {
+      hash.structure(variant.field())
+      hash.structure(variant.slop()?.toString())
+      hash.value(variant.query())
+    }
+    is PrefixQuery -> {
+      hash.structure(variant.field())
+      hash.structure(variant.caseInsensitive()?.toString())
+      hash.value(variant.value())
+    }
+    is WildcardQuery -> {
+      hash.structure(variant.field())
+      hash.structure(variant.caseInsensitive()?.toString())
+      hash.value(variant.value() ?: variant.wildcard())
+    }
+    is RegexpQuery -> {
+      hash.structure(variant.field())
+      hash.structure(variant.flags())
+      hash.structure(variant.caseInsensitive()?.toString())
+      hash.value(variant.value())
+    }
+    is ExistsQuery -> hash.structure(variant.field())
+    is RangeQuery -> {
+      val bounds = variant.toRangeBounds()
+      if (bounds == null) {
+        hash.structure(variant.rangeField())
+        hash.value(variant.jsonKey())
+      } else {
+        hash.structure(bounds.field)
+        hash.structure(bounds.format)
+        // Which bounds are set is part of the shape, not their values
+        listOf(bounds.gt, bounds.gte, bounds.lt, bounds.lte).forEach { bound ->
+          hash.structure(bound?.let { "bound" })
+          hash.value(bound?.hash64() ?: NULL_HASH)
+        }
+      }
+    }
+    is IdsQuery -> hash.value(variant.values().sumOf { mix(it.hash64()) })
+    is MatchAllQuery,
+    is MatchNoneQuery -> Unit
+    else -> {
+      hash.structure((variant as? QueryVariant)?.let { Query(it).leafField() })
+      hash.value((variant as? JsonpSerializable)?.jsonKey())
+    }
+  }
+  return hash.fingerprint()
+}
+
+/** Running hashes of one query, [shape] ignoring what is only added with [value]. */
+private class FingerprintHash(kind: String) {
+  private var shape = kind.hash64()
+  private var exact = shape
+
+  fun structure(part: String?) {
+    val partHash = part?.hash64() ?: NULL_HASH
+    shape = mix(shape + partHash)
+    exact = mix(exact + partHash)
+  }
+
+  fun value(part: String?) = value(part?.hash64() ?: NULL_HASH)
+
+  fun value(partHash: Long) {
+    exact = mix(exact + partHash)
+  }
+
+  fun merge(fingerprint: QueryFingerprint) {
+    shape = mix(shape + fingerprint.shape)
+    exact = mix(exact + fingerprint.exact)
+  }
+
+  /** Adds the [clauses] of an occurrence, in any order. */
+  fun clauses(occurrence: String, clauses: List<Query>, child: (Query) -> QueryFingerprint) {
+    if (clauses.isEmpty()) return
+    structure(occurrence)
+    var shapes = 0L
+    var exacts = 0L
+    for (clause in clauses) {
+      val fingerprint = child(clause)
+      shapes += mix(fingerprint.shape)
+      exacts += mix(fingerprint.exact)
+    }
+    merge(QueryFingerprint(shapes, exacts))
+  }
+
+  fun fingerprint() = QueryFingerprint(shape, exact)
+}
+
+private fun FieldValue.hash64(): Long =
+  mix(
+    _kind().name.hash64() +
+      when {
+        isString -> stringValue().hash64()
+        isLong -> longValue()
+        isDouble -> doubleValue().toRawBits()
+        isBoolean -> if (booleanValue()) 1L else 0L
+        isNull -> NULL_HASH
+        else -> _get().toString().hash64()
+      }
+  )
+
+/**
+ * Hashes the value this JSON data wraps, as built by the DSL, without serializing it. Data read from
+ * JSON wraps a JSON value, hashed from its text.
+ */
+private fun JsonData.hash64(): Long =
+  when (val raw = to(Any::class.java)) {
+    is String -> mix(raw.hash64())
+    is Long,
+    is Int,
+    is Short,
+    is Byte -> mix(NUMBER_HASH + (raw as Number).toLong())
+    is Double,
+    is Float -> mix(NUMBER_HASH + (raw as Number).toDouble().toRawBits())
+    else -> mix(raw.javaClass.name.hash64() + raw.toString().hash64())
+  }
+
+/** 64-bit FNV-1a hash of the UTF-16 code units of this string. */
+private fun String.hash64(): Long {
+  var hash = FNV_OFFSET_BASIS
+  for (char in this) {
+    hash = (hash xor char.code.toLong()) * FNV_PRIME
+  }
+  return hash
+}
+
+/** Finalization step of MurmurHash3, spreading every input bit over the result. */
+private fun mix(value: Long): Long {
+  var hash = value
+  hash = (hash xor (hash ushr MIX_SHIFT)) * MIX_MULTIPLIER_1
+  hash = (hash xor (hash ushr MIX_SHIFT)) * MIX_MULTIPLIER_2
+  return hash xor (hash ushr MIX_SHIFT)
+}
+
+private const val FNV_OFFSET_BASIS = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+private const val FNV_PRIME = 0x100000001b3L
+private const val MIX_SHIFT = 33
+private const val MIX_MULTIPLIER_1 = -0xae502812aa7333L // 0xff51afd7ed558ccd
+private const val MIX_MULTIPLIER_2 = -0x3b314601e57a13adL // 0xc4ceb9fe1a85ec53
+private const val NULL_HASH = 0x6e756c6cL // "null"
+private const val NUMBER_HASH = 0x6e756d626572L // "number"
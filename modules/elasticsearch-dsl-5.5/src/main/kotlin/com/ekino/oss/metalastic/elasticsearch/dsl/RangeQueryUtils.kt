@@ -9,18 +9,22 @@ import co.elastic.clients.json.JsonData
 import com.ekino.oss.metalastic.core.Metamodel
 import com.google.common.collect.BoundType
 import com.google.common.collect.Range
+import java.time.Duration
 
 /** Range query utilities for elasticsearch-java 8.15+ (UntypedRangeQuery API) */
-internal fun <T> Metamodel<*>.toRangeQuery(range: Range<out Comparable<T>>) = RangeQuery.of {
+internal fun <T> Metamodel<*>.toRangeQuery(
+  range: Range<out Comparable<T>>,
+  rounding: Duration? = null,
+) = RangeQuery.of {
   it.untyped { rangeQuery ->
     rangeQuery.field(path())
     if (range.hasLowerBound()) {
       val operator = range.toLowerOperator()
-      rangeQuery.withBound(range.lowerEndpoint(), operator)
+      rangeQuery.withBound(range.lowerEndpoint(), operator, upper = false, rounding)
     }
     if (range.hasUpperBound()) {
       val operator = range.toUpperOperator()
-      rangeQuery.withBound(range.upperEndpoint(), operator)
+      rangeQuery.withBound(range.upperEndpoint(), operator, upper = true, rounding)
     }
     rangeQuery
   }
@@ -51,9 +55,40 @@ internal fun Range<*>.toUpperOperator():
 internal fun <T> UntypedRangeQuery.Builder.withBound(
   value: Comparable<T>,
   operator: (UntypedRangeQuery.Builder, JsonData) -> UntypedRangeQuery.Builder,
+  upper: Boolean,
+  rounding: Duration? = null,
 ) {
-  toJsonData(value)?.let { (jsonData, dateFormat) ->
+  toJsonData(value, upper, rounding)?.let { (jsonData, dateFormat) ->
     operator.invoke(this, jsonData)
     dateFormat?.also { format(dateFormat.pattern) }
   }
 }
+
+/** Returns the bounds of an untyped range query, or `null` for date, number and term ranges. */
+internal fun RangeQuery.toRangeBounds(): RangeBounds? =
+  takeIf { it.isUntyped }
+    ?.untyped()
+    ?.let { RangeBounds(it.field(), it.gt(), it.gte(), it.lt(), it.lte(), it.format()) }
+
+internal fun RangeBounds.toRangeQuery(): RangeQuery = RangeQuery.of { rangeQuery ->
+  rangeQuery.untyped { it.field(field).gt(gt).gte(gte).lt(lt).lte(lte).format(format) }
+}
+
+/** Returns the field of a range query without `boost` nor `_name`, `null` otherwise. */
+internal fun RangeQuery.unboostedField(): String? =
+  when {
+    isUntyped -> untyped().takeIf { it.boost() == null && it.queryName() == null }?.field()
+    isDate -> date().takeIf { it.boost() == null && it.queryName() == null }?.field()
+    isNumber -> number().takeIf { it.boost() == null && it.queryName() == null }?.field()
+    isTerm -> term().takeIf { it.boost() == null && it.queryName() == null }?.field()
+    else -> null
+  }
+
+internal fun RangeQuery.rangeField(): String? =
+  when {
+    isUntyped -> untyped().field()
+    isDate -> date().field()
+    isNumber -> number().field()
+    isTerm -> term().field()
+    else -> null
+  }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import org.springframework.data.elasticsearch.client.elc.NativeQuery
+
+/**
+ * Enables the
+ * [shard request cache](https://www.elastic.co/docs/reference/elasticsearch/configuration-reference/shard-request-cache-settings)
+ * for this query when it only computes aggregations, i.e. when it returns no hits and has at least
+ * one aggregation.
+ *
+ * Setting `request_cache` explicitly caches them even on indices where
+ * `index.requests.cache.enable` is off. Elasticsearch never caches requests whose query relies on
+ * `now`, [DateMath] bounds included, so date bounds of cached requests are better computed on the
+ * client and rounded with [QueryDslOptions.dateRounding]. Other queries are left unchanged.
+ *
+ * ```kotlin
+ * val query = NativeQuery.builder()
+ *   .withQuery(Query(BoolQuery.of { it.boolQueryDsl { ... } }))
+ *   .withAggregation("by_country", aggregation)
+ *   .withMaxResults(0)
+ *   .build()
+ *   .requestCacheIfAggregationOnly()
+ * ```
+ */
+fun NativeQuery.requestCacheIfAggregationOnly(): NativeQuery = apply {
+  if (maxResults == 0 && aggregations.isNotEmpty()) {
+    requestCache = true
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.ConstantScoreQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.core.BooleanField
+import com.ekino.oss.metalastic.core.ByteField
+import com.ekino.oss.metalastic.core.ConstantKeywordField
+import com.ekino.oss.metalastic.core.DateField
+import com.ekino.oss.metalastic.core.DateNanosField
+import com.ekino.oss.metalastic.core.Document
+import com.ekino.oss.metalastic.core.DoubleField
+import com.ekino.oss.metalastic.core.FloatField
+import com.ekino.oss.metalastic.core.HalfFloatField
+import com.ekino.oss.metalastic.core.IntegerField
+import com.ekino.oss.metalastic.core.KeywordField
+import com.ekino.oss.metalastic.core.LongField
+import com.ekino.oss.metalastic.core.Metamodel
+import com.ekino.oss.metalastic.core.ScaledFloatField
+import com.ekino.oss.metalastic.core.ShortField
+
+/**
+ * Moves the non-scoring clauses of a built [BoolQuery] to filter context with a [ScoringRewriter].
+ *
+ * ```kotlin
+ * val boolQuery = BoolQuery.of { it.boolQueryDsl { ... } }
+ * val rewrite = boolQuery.demoteNonScoringClauses(Metamodels.product)
+ * logger.debug { "Demoted ${rewrite.demoted}" }
+ * searchRequest.query(rewrite.query)
+ * ```
+ *
+ * @see ScoringRewriter
+ */
+fun BoolQuery.demoteNonScoringClauses(document: Document<*>): ScoringRewrite =
+  ScoringRewriter(document).rewrite(this)
+
+/**
+ * Rewrites built bool queries so that exact-match clauses run in filter context.
+ *
+ * `term`, `terms`, `range` and `exists` queries on keyword, numeric, date and boolean fields only
+ * tell whether a document matches. In a `must` occurrence, Elasticsearch still scores them and
+ * can't cache them, so the rewriter moves them to the `filter` occurrence of the same bool query.
+ * Nested bools in `must` and `should` are rewritten as well. Clauses with a `boost` or a `_name`,
+ * and fields that [document] doesn't resolve, are left in place.
+ *
+ * When the rewritten query no longer holds any `should` clause, nor `must` clause other than bools
+ * in the same situation, none of its clauses scores and it is wrapped in a `constant_score` query.
+ *
+ * @param document document the query targets, resolving clause paths to their field class
+ */
+class ScoringRewriter(private val document: Document<*>) {
+
+  /** Returns the rewritten form of [query] with the report of the applied changes. */
+  fun rewrite(query: BoolQuery): ScoringRewrite {
+    val demoted = mutableListOf<DemotedClause>()
+    val rewritten = rewriteBool(query, demoted)
+    val constantScore =
+      rewritten.isScoreless() &&
+        (rewritten.must().isNotEmpty() ||
+          rewritten.filter().isNotEmpty() ||
+          rewritten.mustNot().isNotEmpty())
+    val root =
+      if (constantScore) Query(ConstantScoreQuery.of { it.filter(Query(rewritten)) })
+      else Query(rewritten)
+    return ScoringRewrite(root, demoted, constantScore)
+  }
+
+  private fun rewriteBool(bool: BoolQuery, demoted: MutableList<DemotedClause>): BoolQuery {
+    val must = mutableListOf<Query>()
+    val filter = bool.filter().toMutableList()
+    bool.must().forEach { clause ->
+      val path = clause.scoreFreePath()
+      if (path != null) {
+        filter += clause
+        demoted += DemotedClause(path, clause._kind())
+      } else {
+        must += clause.rewriteChild(demoted)
+      }
+    }
+    val should = bool.should().map { it.rewriteChild(demoted) }
+    return bool.withClauses(must, filter, should, bool.mustNot())
+  }
+
+  private fun Query.rewriteChild(demoted: MutableList<DemotedClause>): Query =
+    if (isBool) Query(rewriteBool(bool(), demoted)) else this
+
+  /** Returns the path of a clause that can't affect relevance, or `null` if it may. */
+  private fun Query.scoreFreePath(): String? =
+    when {
+      isTerm -> term().takeIf { it.boost() == null && it.queryName() == null }?.field()
+      isTerms -> terms().takeIf { it.boost() == null && it.queryName() == null }?.field()
+      isRange -> range().unboostedField()
+      isExists -> exists().takeIf { it.boost() == null && it.queryName() == null }?.field()
+      else -> null
+    }?.takeIf { path -> document.metamodelAt(path)?.isScoreFree() == true }
+}
+
+/**
+ * Result of a [ScoringRewriter] pass.
+ *
+ * @param query rewritten query
+ * @param demoted clauses moved from `must` to `filter`, in query order
+ * @param constantScore whether [query] is the rewritten bool query wrapped in a `constant_score`
+ */
+data class ScoringRewrite(
+  val query: Query,
+  val demoted: List<DemotedClause>,
+  val constantScore: Boolean,
+) {
+
+  /** Whether the rewriter changed anything. */
+  val rewritten: Boolean
+    get() = demoted.isNotEmpty() || constantScore
+}
+
+/** A clause of type [kind] on the field at [path], moved from `must` to `filter`. */
+data class DemotedClause(val path: String, val kind: Query.Kind)
+
+/** Whether no clause of this bool query contributes to its score. */
+private fun BoolQuery.isScoreless(): Boolean =
+  should().isEmpty() && boost() == null && must().all { it.isBool && it.bool().isScoreless() }
+
+private fun Metamodel<*>.isScoreFree(): Boolean =
+  when (this) {
+    is KeywordField<*>,
+    is ConstantKeywordField<*>,
+    is LongField<*>,
+    is IntegerField<*>,
+    is ShortField<*>,
+    is ByteField<*>,
+    is DoubleField<*>,
+    is FloatField<*>,
+    is HalfFloatField<*>,
+    is ScaledFloatField<*>,
+    is DateField<*>,
+    is DateNanosField<*>,
+    is BooleanField<*> -> true
+    else -> false
+  }
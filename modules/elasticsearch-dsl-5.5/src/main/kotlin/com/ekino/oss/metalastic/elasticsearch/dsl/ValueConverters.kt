@@ -6,14 +6,15 @@ package com.ekino.oss.metalastic.elasticsearch.dsl
 import co.elastic.clients.elasticsearch._types.FieldValue
 import co.elastic.clients.json.JsonData
 import com.ekino.oss.metalastic.core.DateField
+import com.ekino.oss.metalastic.core.InternalMetalasticApi
 import com.ekino.oss.metalastic.core.Metamodel
+import java.time.Duration
 import java.time.Instant
 import java.time.LocalDate
 import java.time.LocalDateTime
 import java.time.OffsetDateTime
 import java.time.ZoneOffset
 import java.time.ZonedDateTime
-import java.time.format.DateTimeFormatter
 import java.time.temporal.Temporal
 import java.util.Date
 import org.springframework.data.elasticsearch.annotations.DateFormat
@@ -23,20 +24,106 @@ import org.springframework.data.elasticsearch.annotations.DateFormat
  * filtered out to avoid empty queries.
  */
 internal fun <T> T?.toFieldValue(): FieldValue? =
-  when (this) {
-    null -> null
-    is String -> takeIf { it.isNotBlank() }?.let(FieldValue::of)
-    is Long -> FieldValue.of(this)
-    is Int -> FieldValue.of(this.toLong())
-    is Float -> FieldValue.of(this.toDouble())
-    is Double -> FieldValue.of(this)
-    is Boolean -> FieldValue.of(this)
-    is Enum<*> -> FieldValue.of(this.toString())
-    is Date -> FieldValue.of(formatTemporal(emptyList(), toInstant()) { toString() })
-    is Temporal -> FieldValue.of(formatTemporal(emptyList(), this) { toString() })
-    is FieldValue -> this
-    else -> FieldValue.of(this.toString())
+  this?.let { converterOf(it.javaClass).convert(it) }
+
+/** Converts a non-null value of the class it is resolved for. */
+private fun interface FieldValueConverter {
+  fun convert(value: Any): FieldValue?
+}
+
+private fun converterOf(type: Class<*>): FieldValueConverter = fieldValueConverters.get(type)
+
+/**
+ * Returns the converter of values of [type] for this field, kept by the field so that its values,
+ * usually of a single class, are converted without looking the converter up again.
+ */
+@OptIn(InternalMetalasticApi::class)
+private fun Metamodel<*>.converterFor(type: Class<*>): FieldValueConverter =
+  valueConverter(type, FieldValueConverter::class.java, ::converterOf)
+
+/**
+ * Converter of each value class, resolved once per class instead of testing the runtime type of
+ * every value. Enum converters hold one [FieldValue] per constant, so hot enum filters don't
+ * re-create them.
+ */
+private val fieldValueConverters =
+  object : ClassValue<FieldValueConverter>() {
+    override fun computeValue(type: Class<*>): FieldValueConverter =
+      when {
+        type == String::class.java -> FieldValueConverter(::stringValue)
+        type == Long::class.javaObjectType -> FieldValueConverter { FieldValue.of(it as Long) }
+        type == Int::class.javaObjectType ->
+          FieldValueConverter { FieldValue.of((it as Int).toLong()) }
+        type == Float::class.javaObjectType -> FieldValueConverter(::floatValue)
+        type == Double::class.javaObjectType -> FieldValueConverter { FieldValue.of(it as Double) }
+        type == Boolean::class.javaObjectType ->
+          FieldValueConverter { FieldValue.of(it as Boolean) }
+        Enum::class.java.isAssignableFrom(type) -> enumConverter(type)
+        Date::class.java.isAssignableFrom(type) -> FieldValueConverter(::dateValue)
+        Temporal::class.java.isAssignableFrom(type) -> FieldValueConverter(::temporalValue)
+        FieldValue::class.java.isAssignableFrom(type) -> FieldValueConverter { it as FieldValue }
+        else -> FieldValueConverter { FieldValue.of(it.toString()) }
+      }
+  }
+
+private fun stringValue(value: Any): FieldValue? =
+  (value as String).takeIf { it.isNotBlank() }?.let(FieldValue::of)
+
+private fun floatValue(value: Any): FieldValue = FieldValue.of((value as Float).toDouble())
+
+private fun dateValue(value: Any): FieldValue =
+  FieldValue.of(DateFormatChain.DEFAULT.format((value as Date).toInstant()) ?: value.toString())
+
+private fun temporalValue(value: Any): FieldValue =
+  FieldValue.of(DateFormatChain.DEFAULT.format(value as Temporal) ?: value.toString())
+
+private fun enumConverter(type: Class<*>): FieldValueConverter {
+  // Constants with a body are instances of an anonymous subclass of the enum
+  val constants = (if (type.isEnum) type else type.superclass).enumConstants
+  val values = Array(constants.size) { FieldValue.of(constants[it].toString()) }
+  return FieldValueConverter { values[(it as Enum<*>).ordinal] }
+}
+
+// Primitive values go straight to presized field value lists, without boxing them first
+
+internal fun LongArray.toFieldValues(): List<FieldValue> = List(size) { FieldValue.of(this[it]) }
+
+internal fun IntArray.toFieldValues(): List<FieldValue> =
+  List(size) { FieldValue.of(this[it].toLong()) }
+
+internal fun DoubleArray.toFieldValues(): List<FieldValue> = List(size) { FieldValue.of(this[it]) }
+
+internal fun FloatArray.toFieldValues(): List<FieldValue> =
+  List(size) { FieldValue.of(this[it].toDouble()) }
+
+internal fun BooleanArray.toFieldValues(): List<FieldValue> =
+  List(size) { FieldValue.of(this[it]) }
+
+/** Returns the distinct values of this array in ascending order, leaving the array untouched. */
+internal fun LongArray.sortedDistinct(): LongArray {
+  val sorted = copyOf()
+  sorted.sort()
+  var count = 0
+  for (value in sorted) {
+    if (count == 0 || value != sorted[count - 1]) {
+      sorted[count++] = value
+    }
   }
+  return if (count == sorted.size) sorted else sorted.copyOf(count)
+}
+
+/** Returns the distinct values of this array in ascending order, leaving the array untouched. */
+internal fun IntArray.sortedDistinct(): IntArray {
+  val sorted = copyOf()
+  sorted.sort()
+  var count = 0
+  for (value in sorted) {
+    if (count == 0 || value != sorted[count - 1]) {
+      sorted[count++] = value
+    }
+  }
+  return if (count == sorted.size) sorted else sorted.copyOf(count)
+}
 
 internal fun <T : Temporal> T.toEpochMilli() =
   when (this) {
@@ -48,43 +135,6 @@ internal fun <T : Temporal> T.toEpochMilli() =
     else -> error("Unsupported temporal type: ${this::class.simpleName}")
   }
 
-private const val MILLIS_TO_SECONDS = 1000L
-
-/**
- * Internal implementation that formats a temporal value using the configured date formats.
- *
- * This function implements Elasticsearch's date format fallback chain behavior:
- * - Tries each configured format in order until one successfully formats the value
- * - If no formats are configured, uses Elasticsearch's default: `date_optional_time||epoch_millis`
- * - Handles epoch formats (epoch_millis, epoch_second) as special cases
- * - Falls back to `fallback()` if all format attempts fail
- */
-private fun formatTemporal(
-  formats: List<DateFormat>,
-  value: Temporal,
-  fallback: () -> String,
-): String {
-  // When no formats are configured, use Elasticsearch's default format chain:
-  // strict_date_optional_time||epoch_millis (mapped to date_optional_time in Spring Data)
-  val formatsToTry = formats.ifEmpty {
-    listOf(DateFormat.date_optional_time, DateFormat.epoch_millis)
-  }
-  val epochMillis = value.toEpochMilli()
-  return formatsToTry
-    .asSequence()
-    .mapNotNull { format ->
-      when (format) {
-        // Epoch formats require special handling as they don't use DateTimeFormatter patterns
-        DateFormat.epoch_millis -> epochMillis.toString()
-        DateFormat.epoch_second -> (epochMillis / MILLIS_TO_SECONDS).toString()
-        // All other formats use standard DateTimeFormatter patterns
-        else ->
-          runCatching { DateTimeFormatter.ofPattern(format.pattern).format(value) }.getOrNull()
-      }
-    }
-    .firstOrNull() ?: fallback()
-}
-
 /**
  * Elasticsearch dates are internally converted to UTC (if the time-zone is specified) and stored as
  * a long number representing milliseconds-since-the-epoch.
@@ -95,13 +145,35 @@ private fun formatTemporal(
  *
  * [reference](https://www.elastic.co/docs/reference/elasticsearch/mapping-reference/date)
  */
-internal fun <T> toJsonData(value: Comparable<T>): Pair<JsonData, DateFormat?>? =
+internal fun <T> toJsonData(
+  value: Comparable<T>,
+  upper: Boolean,
+  rounding: Duration? = null,
+): Pair<JsonData, DateFormat?>? =
+  toRangeBound(value, upper, rounding).let { (bound, format) -> JsonData.of(bound) to format }
+
+/**
+ * The raw value [toJsonData] wraps, with its date format if any. With [rounding], dates of [upper]
+ * bounds (`lt`, `lte`) are rounded up and the others (`gt`, `gte`) down, so that rounding widens
+ * the range rather than dropping the documents closest to a bound.
+ */
+internal fun <T> toRangeBound(
+  value: Comparable<T>,
+  upper: Boolean,
+  rounding: Duration? = null,
+): Pair<Any, DateFormat?> =
   when (value) {
-    is Temporal -> JsonData.of(value.toEpochMilli()) to DateFormat.epoch_millis
-    is Date -> JsonData.of(value.time) to DateFormat.epoch_millis
-    else -> JsonData.of(value) to null
+    is Temporal -> value.toEpochMilli().rounded(rounding, upper) to DateFormat.epoch_millis
+    is Date -> value.time.rounded(rounding, upper) to DateFormat.epoch_millis
+    else -> value to null
   }
 
+/** Rounds epoch millis [up] or down to a multiple of [rounding], if any. */
+private fun Long.rounded(rounding: Duration?, up: Boolean): Long {
+  val period = rounding?.toMillis() ?: return this
+  return if (up) Math.ceilDiv(this, period) * period else Math.floorDiv(this, period) * period
+}
+
 /**
  * Converts a temporal value to a string representation using the configured date formats.
  *
@@ -118,13 +190,14 @@ internal fun <T> toJsonData(value: Comparable<T>): Pair<JsonData, DateFormat?>?
  */
 internal fun <T : Temporal> DateField<*>.formatted(value: T?): String? {
   if (value == null) return null
-  return formatTemporal(formats, value) { value.toString() }
+  return formatChain.format(value) ?: value.toString()
 }
 
 /**
  * Converts a java.util.Date value to a string representation using the configured date formats.
  *
- * This function delegates to the internal implementation by converting the Date to an Instant.
+ * This function delegates to the [DateFormatChain] of the field by converting the Date to an
+ * Instant.
  *
  * [value] The Date value to format, or null
  *
@@ -132,7 +205,7 @@ internal fun <T : Temporal> DateField<*>.formatted(value: T?): String? {
  */
 internal fun DateField<*>.formatted(value: Date?): String? {
   if (value == null) return null
-  return formatTemporal(formats, value.toInstant()) { value.toString() }
+  return formatChain.format(value.toInstant()) ?: value.toString()
 }
 
 /**
@@ -143,10 +216,36 @@ internal fun DateField<*>.formatted(value: Date?): String? {
  * @return The converted FieldValue, or null if the input value is null
  */
 fun <T> Metamodel<*>.toFieldValue(value: T?): FieldValue? =
-  when (this) {
-    is DateField<*> -> toFieldValue(value)
-    else -> value?.toFieldValue()
+  when {
+    value == null -> null
+    this is DateField<*> -> toFieldValue(value)
+    else -> converterFor(value.javaClass).convert(value)
+  }
+
+/**
+ * Converts every value of [values] for this field, skipping nulls and blank strings. The converter
+ * is taken from the field once per run of values of the same class rather than for each value.
+ *
+ * @param values The values to convert
+ * @return The converted FieldValues, in order
+ */
+internal fun <T> Metamodel<*>.toFieldValues(values: Collection<T>): List<FieldValue> {
+  if (this is DateField<*>) {
+    return values.mapNotNull { toFieldValue(it) }
   }
+  val fieldValues = ArrayList<FieldValue>(values.size)
+  var type: Class<*>? = null
+  var converter: FieldValueConverter? = null
+  for (value in values) {
+    if (value == null) continue
+    if (value.javaClass !== type) {
+      type = value.javaClass
+      converter = converterFor(type)
+    }
+    converter!!.convert(value)?.let(fieldValues::add)
+  }
+  return fieldValues
+}
 
 /**
  * Converts a value to an Elasticsearch FieldValue for DateFields. Automatically applies
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.nulls.shouldBeNull
+import io.kotest.matchers.should
+import io.kotest.matchers.shouldBe
+import java.time.Duration
+import java.time.Instant
+import org.springframework.data.elasticsearch.client.elc.NativeQuery
+
+/** Tests for the options and helpers producing requests Elasticsearch can cache. */
+class CacheFriendlyQueriesTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+
+    context("date math bounds") {
+      should("send rounded date math expressions as they are") {
+        val query =
+          BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  meta.createdAt greaterThanEqualTo
+                    DateMath.now().minus(7, DateMathUnit.DAYS).roundedTo(DateMathUnit.DAYS)
+                }
+            }
+          }
+
+        Query(query).toJsonString() should
+          jsonStrictMatcher(
+            """{"bool": {"filter": [{"range": {"createdAt": {"gte": "now-7d/d"}}}]}}"""
+          )
+      }
+
+      should("create a half-open range between two expressions") {
+        val query =
+          BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  meta.createdAt.between(
+                    DateMath.now().roundedTo(DateMathUnit.MONTHS),
+                    DateMath.now().plus(1, DateMathUnit.MONTHS).roundedTo(DateMathUnit.MONTHS),
+                  )
+                }
+            }
+          }
+
+        Query(query).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {"range": {"createdAt": {"gte": "now/M", "lt": "now+1M/M"}}}
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("reject negative amounts") {
+        shouldThrow<IllegalArgumentException> { DateMath.now().minus(-1, DateMathUnit.HOURS) }
+      }
+    }
+
+    context("date rounding") {
+      val instant = Instant.parse("2024-03-01T10:15:30Z")
+
+      should("round instants down to the configured duration") {
+        val options = QueryDslOptions(dateRounding = Duration.ofHours(1))
+        val query =
+          BoolQuery.of {
+            it.boolQueryDsl(options) { filter + { meta.createdAt greaterThanEqualTo instant } }
+          }
+
+        Query(query).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {"range": {"createdAt": {"gte": 1709287200000, "format": "epoch_millis"}}}
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("round upper bounds up so that rounding only widens the range") {
+        val options = QueryDslOptions(dateRounding = Duration.ofHours(1))
+        val query =
+          BoolQuery.of {
+            it.boolQueryDsl(options) {
+              filter +
+                {
+                  meta.createdAt greaterThan instant
+                  meta.createdAt lowerThan instant
+                  meta.createdAt lowerThanEqualTo Instant.parse("2024-03-01T11:00:00Z")
+                }
+            }
+          }
+
+        Query(query).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {"range": {"createdAt": {"gt": 1709287200000, "format": "epoch_millis"}}},
+                  {"range": {"createdAt": {"lt": 1709290800000, "format": "epoch_millis"}}},
+                  {"range": {"createdAt": {"lte": 1709290800000, "format": "epoch_millis"}}}
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("round prepared range parameters in the direction of their bound") {
+        val options = QueryDslOptions(dateRounding = Duration.ofHours(1))
+        val from = meta.createdAt.parameter()
+        val to = meta.createdAt.parameter()
+        val prepared =
+          PreparedQuery.prepare(from, to, options = options) {
+            filter +
+              {
+                meta.createdAt greaterThanEqualTo from
+                meta.createdAt lowerThan to
+              }
+          }
+
+        prepared.toJsonString(from bindTo instant, to bindTo instant) should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {"range": {"createdAt": {"gte": 1709287200000, "format": "epoch_millis"}}},
+                  {"range": {"createdAt": {"lt": 1709290800000, "format": "epoch_millis"}}}
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("produce the same request within a rounding period") {
+        val options = QueryDslOptions(dateRounding = Duration.ofDays(1))
+        fun request(at: Instant) =
+          BoolQuery.of { it.boolQueryDsl(options) { filter + { meta.createdAt lowerThan at } } }
+            .let { Query(it).toJsonString() }
+
+        request(instant) shouldBe request(instant.plusSeconds(3600))
+      }
+
+      should("reject durations shorter than a millisecond") {
+        shouldThrow<IllegalArgumentException> { QueryDslOptions(dateRounding = Duration.ZERO) }
+      }
+    }
+
+    context("canonical order") {
+      val options = QueryDslOptions(canonicalOrder = true)
+
+      should("produce the same request whatever the order of clauses and terms") {
+        val first =
+          BoolQuery.of {
+            it.boolQueryDsl(options) {
+              filter +
+                {
+                  meta.country.terms(listOf("France", "Belgium"))
+                  meta.active term true
+                }
+            }
+          }
+        val second =
+          BoolQuery.of {
+            it.boolQueryDsl(options) {
+              filter +
+                {
+                  meta.active term true
+                  meta.country.terms(listOf("Belgium", "France"))
+                }
+            }
+          }
+
+        Query(first).toJsonString() shouldBe Query(second).toJsonString()
+      }
+
+      should("sort clauses inside nested bool queries") {
+        val query =
+          BoolQuery.of {
+            it.boolQueryDsl(options) {
+              must +
+                {
+                  bool {
+                    should +
+                      {
+                        meta.country term "France"
+                        meta.category term "books"
+                      }
+                  }
+                }
+            }
+          }
+
+        Query(query).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "must": [
+                  {
+                    "bool": {
+                      "should": [
+                        {"term": {"category": {"value": "books"}}},
+                        {"term": {"country": {"value": "France"}}}
+                      ]
+                    }
+                  }
+                ]
+              }
+            }
+          """
+          )
+      }
+    }
+
+    context("request cache") {
+      val aggregation = Aggregation.of { it.terms { t -> t.field("country") } }
+
+      should("enable the request cache for aggregation-only queries") {
+        val query =
+          NativeQuery.builder()
+            .withAggregation("by_country", aggregation)
+            .withMaxResults(0)
+            .build()
+            .requestCacheIfAggregationOnly()
+
+        query.requestCache shouldBe true
+      }
+
+      should("leave queries returning hits unchanged") {
+        val query =
+          NativeQuery.builder()
+            .withAggregation("by_country", aggregation)
+            .build()
+            .requestCacheIfAggregationOnly()
+
+        query.requestCache.shouldBeNull()
+      }
+    }
+  })
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.FieldValue
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import co.elastic.clients.elasticsearch._types.query_dsl.TermQuery
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.sun.management.ThreadMXBean
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.longs.shouldBeLessThan
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import java.lang.management.ManagementFactory
+
+/** Tests for the allocations of the DSL compared with building the client objects by hand. */
+class DslAllocationTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+    val values = List(10) { "value-$it" }
+
+    fun dslQuery(): BoolQuery =
+      BoolQuery.of {
+        it.boolQueryDsl {
+          filter + { values.forEach { value -> meta.country term value } }
+          filter + { values.forEach { value -> meta.category term value } }
+          filter + { values.forEach { value -> meta.name match value } }
+        }
+      }
+
+    fun clientQuery(): BoolQuery =
+      BoolQuery.of { builder ->
+        values.forEach { value ->
+          builder.filter(
+            Query(TermQuery.Builder().field("country").value(FieldValue.of(value)).build())
+          )
+        }
+        values.forEach { value ->
+          builder.filter(
+            Query(TermQuery.Builder().field("category").value(FieldValue.of(value)).build())
+          )
+        }
+        values.forEach { value ->
+          builder.filter(
+            Query(MatchQuery.Builder().field("name").query(FieldValue.of(value)).build())
+          )
+        }
+        builder
+      }
+
+    should("build the same query as the client builders") {
+      dslQuery().jsonKey() shouldBe clientQuery().jsonKey()
+    }
+
+    should("share the query DSL of an occurrence between its blocks") {
+      val dsl = BoolQueryDsl(BoolQuery.Builder())
+
+      dsl.filterVariants() shouldBeSameInstanceAs dsl.filterVariants()
+    }
+
+    should("allocate little more than the client objects of a 30-clause filter") {
+      val threads = ManagementFactory.getThreadMXBean() as ThreadMXBean
+      fun allocatedBy(block: () -> Unit): Long {
+        val before = threads.currentThreadAllocatedBytes
+        block()
+        return threads.currentThreadAllocatedBytes - before
+      }
+      // Warm up class initialization and the value converters
+      repeat(1_000) {
+        dslQuery()
+        clientQuery()
+      }
+
+      val client = allocatedBy { repeat(1_000) { clientQuery() } }
+      val dsl = allocatedBy { repeat(1_000) { dslQuery() } }
+
+      dsl shouldBeLessThan client + client / 10
+    }
+  })
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.should
+import java.time.Instant
+
+/** Tests for queries prepared once and rendered with bound parameters. */
+class PreparedQueryTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+
+    should("render the same JSON as the DSL with the bound values") {
+      val status = meta.status.parameter()
+      val countries = meta.country.parameter()
+      val minAge = meta.age.parameter()
+      val since = meta.createdAt.parameter()
+      val name = meta.name.parameter()
+      val prepared =
+        PreparedQuery.prepare(status, countries, minAge, since, name) {
+          must + { meta.name match name }
+          filter +
+            {
+              meta.status term status
+              meta.country terms countries
+              meta.age greaterThanEqualTo minAge
+              meta.createdAt lowerThan since
+              meta.active term true
+            }
+        }
+      val instant = Instant.parse("2024-03-01T10:15:30Z")
+
+      val rendered =
+        prepared.toJsonString(
+          status bindTo TestStatus.ACTIVE,
+          countries bindToAll listOf("France", "Belgium"),
+          minAge bindTo 18,
+          since bindTo instant,
+          name bindTo "laptop",
+        )
+
+      val expected =
+        BoolQuery.of {
+          it.boolQueryDsl {
+            must + { meta.name match "laptop" }
+            filter +
+              {
+                meta.status term TestStatus.ACTIVE
+                meta.country.terms(listOf("France", "Belgium"))
+                meta.age greaterThanEqualTo 18
+                meta.createdAt lowerThan instant
+                meta.active term true
+              }
+          }
+        }
+      rendered should jsonStrictMatcher(Query(expected).toJsonString())
+    }
+
+    should("render each request with its own values") {
+      val country = meta.country.parameter()
+      val prepared = PreparedQuery.prepare(country) { filter + { meta.country term country } }
+
+      prepared.toJsonString(country bindTo "France") should
+        jsonStrictMatcher("""{"bool": {"filter": [{"term": {"country": {"value": "France"}}}]}}""")
+      prepared.toJsonString(country bindTo "Spain") should
+        jsonStrictMatcher("""{"bool": {"filter": [{"term": {"country": {"value": "Spain"}}}]}}""")
+    }
+
+    should("require a value for every parameter") {
+      val country = meta.country.parameter()
+      val prepared = PreparedQuery.prepare(country) { filter + { meta.country term country } }
+
+      shouldThrow<IllegalArgumentException> { prepared.render() }
+    }
+
+    should("reject parameters used on another field or not prepared") {
+      val country = meta.country.parameter()
+
+      shouldThrow<IllegalArgumentException> {
+        PreparedQuery.prepare(country) { filter + { meta.category term country } }
+      }
+      shouldThrow<IllegalArgumentException> {
+        PreparedQuery.prepare { filter + { meta.country term country } }
+      }
+    }
+
+    should("reject parameters dropped while building the query") {
+      val dataset = meta.dataset.parameter()
+
+      shouldThrow<IllegalArgumentException> {
+        PreparedQuery.prepare(dataset, options = QueryDslOptions(foldConstants = true)) {
+          filter + { meta.dataset term dataset }
+        }
+      }
+    }
+
+    should("reject terms parameters bound to more values than a terms query takes") {
+      val countries = meta.country.parameter()
+      val prepared =
+        PreparedQuery.prepare(countries, options = QueryDslOptions(maxTermsPerQuery = 2)) {
+          filter + { meta.country terms countries }
+        }
+
+      prepared.toJsonString(countries bindToAll listOf("France", "Belgium")) should
+        jsonStrictMatcher(
+          """{"bool": {"filter": [{"terms": {"country": ["France", "Belgium"]}}]}}"""
+        )
+      shouldThrow<IllegalArgumentException> {
+        prepared.render(countries bindToAll listOf("France", "Belgium", "Spain"))
+      }
+    }
+  })
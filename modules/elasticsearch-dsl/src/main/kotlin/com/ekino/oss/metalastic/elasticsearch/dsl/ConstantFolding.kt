@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.FieldValue
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchAllQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchNoneQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.PrefixQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import co.elastic.clients.elasticsearch._types.query_dsl.QueryVariant
+import co.elastic.clients.elasticsearch._types.query_dsl.TermQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery
+import com.ekino.oss.metalastic.core.ConstantKeywordField
+
+/**
+ * Whether [query], a term-level query on this field, matches every document (`true`) or none
+ * (`false`) given the constant [ConstantKeywordField.value]. Returns `null` when the value is
+ * unknown, or when the query has a `boost`, a `_name`, is case-insensitive or is not a `term`,
+ * `terms` or `prefix` query.
+ */
+internal fun ConstantKeywordField<*>.evaluate(query: QueryVariant): Boolean? {
+  val constant = value ?: return null
+  return when (query) {
+    is TermQuery ->
+      query
+        .takeIf { it.boost() == null && it.queryName() == null && it.caseInsensitive() != true }
+        ?.value()
+        ?.text()
+        ?.let { it == constant }
+    is TermsQuery ->
+      query
+        .takeIf { it.boost() == null && it.queryName() == null && it.terms().isValue }
+        ?.terms()
+        ?.value()
+        ?.map { it.text() ?: return null }
+        ?.let { constant in it }
+    is PrefixQuery ->
+      query
+        .takeIf { it.boost() == null && it.queryName() == null && it.caseInsensitive() != true }
+        ?.value()
+        ?.let { constant.startsWith(it) }
+    else -> null
+  }
+}
+
+/** The value of a term as indexed in a keyword field, `null` for `null` values. */
+private fun FieldValue.text(): String? = if (isString) stringValue() else _get()?.toString()
+
+/** Returns `match_all` when [matches] is `true`, `match_none` otherwise. */
+internal fun constantQuery(matches: Boolean): QueryVariant =
+  if (matches) MatchAllQuery.of { it } else MatchNoneQuery.of { it }
+
+/**
+ * Returns this bool query with its `match_all` and `match_none` clauses folded, enabled through
+ * [QueryDslOptions.foldConstants]:
+ * - a `match_none` in `must` or `filter`, a `match_all` in `must_not`, or `should` clauses that
+ *   are all `match_none` when one of them is required, make the whole bool match nothing
+ * - `match_all` clauses in `filter` and `match_none` clauses in `must_not` and `should` are
+ *   dropped. `match_all` clauses in `must` and `should` are kept, as they contribute to scores.
+ *
+ * Nested bools are folded first, and bools or nested queries that can never match become
+ * `match_none` in their parent. A bool matching nothing is returned as a bool filtering on
+ * `match_none`, see [matchesNothing].
+ */
+internal fun BoolQuery.foldConstants(): BoolQuery =
+  fold().let { if (it.isBool) it.bool() else BoolQuery.of { b -> b.filter(it) } }
+
+/**
+ * Whether this bool query can never match, as folded by [QueryDslOptions.foldConstants]. Such a
+ * query does not need to be sent to the cluster.
+ */
+fun BoolQuery.matchesNothing(): Boolean =
+  must().any { it.isMatchNone } || filter().any { it.isMatchNone }
+
+private fun BoolQuery.fold(): Query {
+  val must = must().map { it.folded() }
+  val filter = filter().map { it.folded() }
+  val should = should().map { it.folded() }
+  val mustNot = mustNot().map { it.folded() }
+  val required = must + filter
+  if (required.any { it.isMatchNone } || mustNot.any { it.matchesAll() }) {
+    return MATCH_NONE
+  }
+
+  val shouldRequired = minimumShouldMatch() == null && required.isEmpty()
+  val keptShould =
+    if (minimumShouldMatch() == null) should.filterNot { it.isMatchNone } else should
+  if (shouldRequired && should.isNotEmpty() && keptShould.isEmpty()) {
+    return MATCH_NONE
+  }
+  // Dropping every filter clause would make the remaining should clauses required
+  val keepsShouldOptional = filter.isNotEmpty() && must.isEmpty() && keptShould.isNotEmpty()
+  val keptFilter =
+    filter
+      .filterNot { it.matchesAll() }
+      .takeUnless { it.isEmpty() && keepsShouldOptional }
+      ?: listOf(MATCH_ALL)
+  return Query(
+    withClauses(
+      must = must,
+      filter = keptFilter,
+      should = keptShould,
+      mustNot = mustNot.filterNot { it.isMatchNone },
+    )
+  )
+}
+
+private fun Query.folded(): Query =
+  when {
+    isBool -> bool().fold()
+    isNested && nested().query().folded().isMatchNone -> MATCH_NONE
+    else -> this
+  }
+
+private fun Query.matchesAll(): Boolean = isMatchAll || isBool && bool().hasNoClauses()
+
+private fun BoolQuery.hasNoClauses(): Boolean =
+  must().isEmpty() && filter().isEmpty() && should().isEmpty() && mustNot().isEmpty()
+
+private val MATCH_ALL: Query = Query(MatchAllQuery.of { it })
+
+private val MATCH_NONE: Query = Query(MatchNoneQuery.of { it })
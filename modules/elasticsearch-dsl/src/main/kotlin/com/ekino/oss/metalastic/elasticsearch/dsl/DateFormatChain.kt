@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import com.ekino.oss.metalastic.core.DateField
+import com.ekino.oss.metalastic.core.InternalMetalasticApi
+import java.time.DateTimeException
+import java.time.format.DateTimeFormatter
+import java.time.temporal.ChronoField
+import java.time.temporal.IsoFields
+import java.time.temporal.Temporal
+import java.time.temporal.TemporalField
+import java.time.temporal.TemporalQueries
+import java.time.temporal.WeekFields
+import java.util.concurrent.ConcurrentHashMap
+import org.springframework.data.elasticsearch.annotations.DateFormat
+
+private const val MILLIS_TO_SECONDS = 1000L
+
+// Pattern letters printing a zone id rather than a temporal field
+private const val ZONE_ID_LETTERS = "Vvz"
+
+/**
+ * A date format chain (`format1||format2`) compiled once.
+ *
+ * This implements Elasticsearch's date format fallback chain behavior:
+ * - Each configured format is tried in order until one successfully formats the value
+ * - Epoch formats (epoch_millis, epoch_second) are handled as special cases
+ * - Formats whose pattern cannot be compiled are skipped
+ *
+ * Patterns are compiled to [DateTimeFormatter]s when the chain is created, together with the
+ * fields each one prints outside of optional sections. A format applies to a value when the value
+ * supports all of them, so the first applicable format of each temporal class is found without
+ * formatting, and remembered. Formatting a value then starts directly at that format. Patterns
+ * using letters whose fields are not known here are tried by formatting, as before.
+ *
+ * Chains are shared per list of formats through [of], and each [DateField] keeps its own, see
+ * [formatChain].
+ */
+internal class DateFormatChain private constructor(private val formats: List<DateFormat>) {
+
+  // Compiled pattern of each format, null for epoch formats and invalid patterns
+  private val formatters: Array<DateTimeFormatter?> =
+    Array(formats.size) { index ->
+      when (val format = formats[index]) {
+        DateFormat.epoch_millis,
+        DateFormat.epoch_second -> null
+        else -> runCatching { DateTimeFormatter.ofPattern(format.pattern) }.getOrNull()
+      }
+    }
+
+  // What each compiled pattern needs from a value, null for epoch formats, invalid patterns and
+  // patterns using letters not mapped to their fields
+  private val requirements: Array<PatternRequirements?> =
+    Array(formats.size) { index -> formatters[index]?.let { requirementsOf(formats[index], it) } }
+
+  // Index of the first format able to print each temporal class, formats.size when none is
+  private val firstApplicable = ConcurrentHashMap<Class<*>, Int>()
+
+  /** Formats [value] with the first applicable format, or returns `null` when none applies. */
+  fun format(value: Temporal): String? {
+    val first =
+      firstApplicable.getOrPut(value.javaClass) {
+        formats.indices.firstOrNull { applies(it, value) } ?: formats.size
+      }
+    // Later formats are still tried when the remembered one rejects this particular value
+    for (index in first until formats.size) {
+      formatAt(index, value)?.let {
+        return it
+      }
+    }
+    return null
+  }
+
+  private fun applies(index: Int, value: Temporal): Boolean =
+    when (formats[index]) {
+      DateFormat.epoch_millis,
+      DateFormat.epoch_second -> true
+      else -> formatters[index] != null && (requirements[index]?.isMetBy(value) ?: true)
+    }
+
+  private fun formatAt(index: Int, value: Temporal): String? =
+    when (formats[index]) {
+      DateFormat.epoch_millis -> value.toEpochMilli().toString()
+      DateFormat.epoch_second -> (value.toEpochMilli() / MILLIS_TO_SECONDS).toString()
+      else ->
+        if (applies(index, value)) {
+          // Rejects patterns with unmapped letters, and field values a pattern cannot print
+          try {
+            formatters[index]?.format(value)
+          } catch (_: DateTimeException) {
+            null
+          }
+        } else {
+          null
+        }
+    }
+
+  companion object {
+    /**
+     * Elasticsearch's default format chain, used when no formats are configured:
+     * strict_date_optional_time||epoch_millis (mapped to date_optional_time in Spring Data)
+     */
+    val DEFAULT = DateFormatChain(listOf(DateFormat.date_optional_time, DateFormat.epoch_millis))
+
+    private val chains = ConcurrentHashMap<List<DateFormat>, DateFormatChain>()
+
+    /** Returns the chain of [formats], compiling it on first use. */
+    fun of(formats: List<DateFormat>): DateFormatChain =
+      if (formats.isEmpty()) DEFAULT else chains.computeIfAbsent(formats, ::DateFormatChain)
+  }
+}
+
+/** Returns the format chain of this field, resolved on the first call and kept by the field. */
+@OptIn(InternalMetalasticApi::class)
+internal val DateField<*>.formatChain: DateFormatChain
+  get() = compiledFormats(DateFormatChain::class.java, DateFormatChain::of)
+
+/**
+ * Fields a pattern prints outside of its optional sections, and whether it prints a zone id.
+ * Optional sections are skipped when the value lacks their fields, so they never make a pattern
+ * inapplicable.
+ */
+private class PatternRequirements(
+  private val fields: Array<TemporalField>,
+  private val zoneId: Boolean,
+) {
+  fun isMetBy(value: Temporal): Boolean =
+    fields.all(value::isSupported) && (!zoneId || value.query(TemporalQueries.zoneId()) != null)
+}
+
+/**
+ * Reads the pattern letters of [format] (see [DateTimeFormatter] "Patterns for Formatting and
+ * Parsing"), returning `null` when the pattern uses a letter not mapped here (e.g. `B`, `g`). The
+ * format is then tried on every value, formatting failures meaning it does not apply.
+ */
+private fun requirementsOf(format: DateFormat, formatter: DateTimeFormatter): PatternRequirements? {
+  val weekFields = WeekFields.of(formatter.locale)
+  val fields = LinkedHashSet<TemporalField>()
+  var zoneId = false
+  var quoted = false
+  var optionalDepth = 0
+  for (letter in format.pattern) {
+    when {
+      letter == '\'' -> quoted = !quoted
+      quoted -> Unit
+      letter == '[' -> optionalDepth++
+      letter == ']' -> optionalDepth--
+      optionalDepth > 0 || !letter.isPatternLetter() || letter == 'p' -> Unit
+      letter in ZONE_ID_LETTERS -> zoneId = true
+      else -> fields += patternField(letter, weekFields) ?: return null
+    }
+  }
+  return PatternRequirements(fields.toTypedArray(), zoneId)
+}
+
+private fun Char.isPatternLetter(): Boolean = this in 'A'..'Z' || this in 'a'..'z'
+
+private fun patternField(letter: Char, weekFields: WeekFields): TemporalField? =
+  when (letter) {
+    'Y' -> weekFields.weekBasedYear()
+    'w' -> weekFields.weekOfWeekBasedYear()
+    'W' -> weekFields.weekOfMonth()
+    'e',
+    'c' -> weekFields.dayOfWeek()
+    else -> PATTERN_FIELDS[letter]
+  }
+
+// Field printed by each pattern letter, except the locale-dependent week-based ones
+private val PATTERN_FIELDS: Map<Char, TemporalField> =
+  mapOf(
+    'G' to ChronoField.ERA,
+    'u' to ChronoField.YEAR,
+    'y' to ChronoField.YEAR_OF_ERA,
+    'D' to ChronoField.DAY_OF_YEAR,
+    'M' to ChronoField.MONTH_OF_YEAR,
+    'L' to ChronoField.MONTH_OF_YEAR,
+    'd' to ChronoField.DAY_OF_MONTH,
+    'Q' to IsoFields.QUARTER_OF_YEAR,
+    'q' to IsoFields.QUARTER_OF_YEAR,
+    'E' to ChronoField.DAY_OF_WEEK,
+    'F' to ChronoField.ALIGNED_WEEK_OF_MONTH,
+    'a' to ChronoField.AMPM_OF_DAY,
+    'h' to ChronoField.CLOCK_HOUR_OF_AMPM,
+    'K' to ChronoField.HOUR_OF_AMPM,
+    'k' to ChronoField.CLOCK_HOUR_OF_DAY,
+    'H' to ChronoField.HOUR_OF_DAY,
+    'm' to ChronoField.MINUTE_OF_HOUR,
+    's' to ChronoField.SECOND_OF_MINUTE,
+    'S' to ChronoField.NANO_OF_SECOND,
+    'n' to ChronoField.NANO_OF_SECOND,
+    'A' to ChronoField.MILLI_OF_DAY,
+    'N' to ChronoField.NANO_OF_DAY,
+    'O' to ChronoField.OFFSET_SECONDS,
+    'X' to ChronoField.OFFSET_SECONDS,
+    'x' to ChronoField.OFFSET_SECONDS,
+    'Z' to ChronoField.OFFSET_SECONDS,
+  )
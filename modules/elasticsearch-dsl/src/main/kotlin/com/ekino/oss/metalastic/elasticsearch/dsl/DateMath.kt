@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+/**
+ * An Elasticsearch
+ * [date math](https://www.elastic.co/docs/reference/elasticsearch/rest-apis/common-options#date-math)
+ * expression relative to `now`, used as a bound of date range queries.
+ *
+ * The expression is resolved by the cluster, so the query sent is the same for every request.
+ * Rounded expressions such as `now-1d/d` resolve to the same instant for a whole rounding unit,
+ * which lets the node query cache reuse the filter. The shard request cache never caches requests
+ * relying on `now`, see [QueryDslOptions.dateRounding] for these.
+ *
+ * ```kotlin
+ * document.createdAt greaterThanEqualTo
+ *   DateMath.now().minus(7, DateMathUnit.DAYS).roundedTo(DateMathUnit.DAYS)
+ * ```
+ */
+@JvmInline
+value class DateMath private constructor(val expression: String) {
+
+  /** Adds [amount] [unit]s, e.g. `now+1h`. */
+  fun plus(amount: Int, unit: DateMathUnit): DateMath {
+    require(amount >= 0) { "amount must not be negative, was $amount" }
+    return DateMath("$expression+$amount${unit.symbol}")
+  }
+
+  /** Subtracts [amount] [unit]s, e.g. `now-1d`. */
+  fun minus(amount: Int, unit: DateMathUnit): DateMath {
+    require(amount >= 0) { "amount must not be negative, was $amount" }
+    return DateMath("$expression-$amount${unit.symbol}")
+  }
+
+  /**
+   * Rounds to the [unit], e.g. `now/d`. Elasticsearch rounds `gt` and `lte` bounds up to the end
+   * of the unit, `gte` and `lt` bounds down to its start.
+   */
+  fun roundedTo(unit: DateMathUnit) = DateMath("$expression/${unit.symbol}")
+
+  override fun toString() = expression
+
+  companion object {
+    /** The current time of the cluster. */
+    fun now() = DateMath("now")
+  }
+}
+
+/** Time units of [DateMath] expressions. */
+enum class DateMathUnit(val symbol: String) {
+  YEARS("y"),
+  MONTHS("M"),
+  WEEKS("w"),
+  DAYS("d"),
+  HOURS("h"),
+  MINUTES("m"),
+  SECONDS("s"),
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.NestedQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.core.Document
+
+/**
+ * Groups the clauses on the same nested path of a [boolQueryDsl] into one
+ * [nested query](https://www.elastic.co/docs/reference/query-languages/query-dsl/query-dsl-nested-query)
+ * per path, enabled through [QueryDslOptions.nestedGrouping].
+ *
+ * Clauses are leaf queries on fields that [document] resolves under a nested container, and plain
+ * nested queries (no `score_mode`, `inner_hits`, `ignore_unmapped`, `boost` nor `_name`) built with
+ * [QueryVariantDsl.nested]. Within each occurrence of a bool query:
+ * - `should` clauses on the same path become one nested query matching any of them, unless the bool
+ *   query sets `minimum_should_match`, which counts each of them. `must_not` clauses on the same
+ *   path become one nested query too, excluding documents with a nested object matching any of them
+ * - `must` and `filter` clauses on the same path become one nested query only with
+ *   [sameNestedObject], since a single nested object then has to match all of them. Otherwise each
+ *   leaf clause is wrapped in its own nested query, and each nested query is kept.
+ *
+ * Leaf clauses on multi-level nested fields are grouped under their outermost nested container,
+ * then again under the inner ones.
+ *
+ * ```kotlin
+ * val options = QueryDslOptions(nestedGrouping = NestedGrouping(Metamodels.order))
+ *
+ * BoolQuery.of {
+ *   it.boolQueryDsl(options) {
+ *     mustNot + {
+ *       order.lines.sku term "A-1"
+ *       order.lines.sku term "B-2"
+ *     }
+ *   }
+ * }
+ * ```
+ *
+ * @param document document the queries target, resolving clause paths to their nested containers
+ * @param sameNestedObject whether `must` and `filter` clauses on the same path have to match the
+ *   same nested object
+ */
+class NestedGrouping(
+  private val document: Document<*>,
+  private val sameNestedObject: Boolean = false,
+) {
+
+  /** Returns [bool] with its clauses grouped, [scope] being the path of the enclosing nested. */
+  internal fun group(bool: BoolQuery, scope: String? = null): BoolQuery =
+    bool.withClauses(
+      must = group(bool.must(), scope, Occurrence.MUST, sameNestedObject),
+      filter = group(bool.filter(), scope, Occurrence.FILTER, sameNestedObject),
+      should = group(bool.should(), scope, Occurrence.SHOULD, bool.minimumShouldMatch() == null),
+      mustNot = group(bool.mustNot(), scope, Occurrence.MUST_NOT, true),
+    )
+
+  /** Groups [clauses] of [occurrence], those on the same path into one nested query if [merged]. */
+  private fun group(
+    clauses: List<Query>,
+    scope: String?,
+    occurrence: Occurrence,
+    merged: Boolean,
+  ): List<Query> {
+    val grouped = clauses.map { regroupChildren(it, scope) }
+    val targets = grouped.map { it.nestedTarget(scope) }
+    if (targets.all { it == null }) return grouped
+
+    val emitted = mutableSetOf<String>()
+    return grouped.indices.mapNotNull { index ->
+      val target = targets[index]
+      val clause = grouped[index]
+      when {
+        target == null -> clause
+        !merged -> if (clause.isNested) clause else nested(target, clause)
+        emitted.add(target) ->
+          grouped
+            .filterIndexed { other, _ -> targets[other] == target }
+            .map { if (it.isNested) it.nested().query() else it }
+            .let { nested(target, it.singleOrNull() ?: Query(it.combined(occurrence))) }
+        else -> null
+      }
+    }
+  }
+
+  /** Groups the clauses of a bool query, or of the query of a nested one, on its own scope. */
+  private fun regroupChildren(clause: Query, scope: String?): Query =
+    when {
+      clause.isBool -> Query(group(clause.bool(), scope))
+      clause.isNested ->
+        clause.nested().let { nested ->
+          Query(
+            NestedQuery.of { b ->
+              b
+                .path(nested.path())
+                .query(regroupIn(nested.query(), nested.path()))
+                .scoreMode(nested.scoreMode())
+                .innerHits(nested.innerHits())
+                .ignoreUnmapped(nested.ignoreUnmapped())
+                .boost(nested.boost())
+                .queryName(nested.queryName())
+            }
+          )
+        }
+      else -> clause
+    }
+
+  /** Returns [query] grouped as the query of a nested query on [path]. */
+  private fun regroupIn(query: Query, path: String): Query =
+    when {
+      query.isBool -> Query(group(query.bool(), path))
+      query.isNested -> regroupChildren(query, path)
+      else -> query.nestedTarget(path)?.let { nested(it, query) } ?: query
+    }
+
+  /** Returns the nested path directly below [scope] under which this clause is grouped. */
+  private fun Query.nestedTarget(scope: String?): String? =
+    if (isNested) {
+      nested().takeIf { it.isPlain() && it.path().isBelow(scope) }?.path()
+    } else {
+      leafField()
+        ?.let { document.metamodelAt(it) }
+        ?.nestedPaths()
+        ?.lastOrNull { it.isBelow(scope) }
+    }
+
+  /** Returns a nested query on [path] matching [query], with its nested clauses grouped. */
+  private fun nested(path: String, query: Query): Query =
+    Query(NestedQuery.of { it.path(path).query(regroupIn(query, path)) })
+
+  private fun List<Query>.combined(occurrence: Occurrence): BoolQuery =
+    BoolQuery.of {
+      when (occurrence) {
+        Occurrence.MUST -> it.must(this)
+        Occurrence.FILTER -> it.filter(this)
+        Occurrence.SHOULD,
+        Occurrence.MUST_NOT -> it.should(this)
+      }
+    }
+}
+
+private fun NestedQuery.isPlain() =
+  scoreMode() == null &&
+    innerHits() == null &&
+    ignoreUnmapped() == null &&
+    boost() == null &&
+    queryName() == null
+
+private fun String.isBelow(scope: String?) = scope == null || startsWith("$scope.")
+
+/** Returns the field of a leaf query on a single field, or `null` for other queries. */
+internal fun Query.leafField(): String? =
+  when {
+    isTerm -> term().field()
+    isTerms -> terms().field()
+    isTermsSet -> termsSet().field()
+    isMatch -> match().field()
+    isMatchPhrase -> matchPhrase().field()
+    isMatchPhrasePrefix -> matchPhrasePrefix().field()
+    isPrefix -> prefix().field()
+    isWildcard -> wildcard().field()
+    isRegexp -> regexp().field()
+    isFuzzy -> fuzzy().field()
+    isExists -> exists().field()
+    isRange -> range().rangeField()
+    else -> null
+  }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.core.Metamodel
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.time.temporal.Temporal
+import java.util.Date
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A bool query built once with [Parameter] placeholders, rendered to JSON for each request by
+ * splicing the bound values between pre-serialized constant parts.
+ *
+ * Rendering does not run the DSL again nor build client query objects: it only converts the bound
+ * values as the DSL would ([toFieldValue], epoch millis for dates in ranges) and copies bytes.
+ *
+ * ```kotlin
+ * val status = product.status.parameter()
+ * val minPrice = product.price.parameter()
+ * val byStatus =
+ *   PreparedQuery.prepare(status, minPrice) {
+ *     filter + {
+ *       product.status term status
+ *       product.price greaterThanEqualTo minPrice
+ *     }
+ *   }
+ *
+ * val json: ByteArray = byStatus.render(status bindTo Status.ACTIVE, minPrice bindTo 10.0)
+ * ```
+ *
+ * The rendered JSON is the query object, to be sent as the `query` of a raw search request body.
+ * Unlike the DSL, a clause with a parameter is always part of the query, so every parameter has
+ * to be bound to a non-null value. Rewrites deciding on values at build time cannot see the bound
+ * ones: preparing fails when one drops a parameter (e.g. [QueryDslOptions.foldConstants] on a
+ * constant keyword field), and rendering fails when a terms parameter is bound to more than
+ * [QueryDslOptions.maxTermsPerQuery] values.
+ */
+class PreparedQuery
+private constructor(private val segments: List<ByteArray>, private val slots: List<Slot>) {
+
+  private val constantSize = segments.sumOf { it.size }
+
+  /** Renders the query with [bindings] as JSON bytes. */
+  fun render(vararg bindings: ParameterBinding): ByteArray =
+    ByteArrayOutputStream(constantSize + slots.size * VALUE_SIZE_HINT)
+      .also { writeTo(it, *bindings) }
+      .toByteArray()
+
+  /** Renders the query with [bindings] as a JSON string. */
+  fun toJsonString(vararg bindings: ParameterBinding): String =
+    String(render(*bindings), Charsets.UTF_8)
+
+  /** Writes the query with [bindings] as JSON to [out]. */
+  fun writeTo(out: OutputStream, vararg bindings: ParameterBinding) {
+    out.write(segments[0])
+    slots.forEachIndexed { index, slot ->
+      val binding =
+        bindings.firstOrNull { it.parameter === slot.parameter }
+          ?: throw IllegalArgumentException("No value bound to ${slot.parameter}")
+      out.write(slot.json(binding.value))
+      out.write(segments[index + 1])
+    }
+  }
+
+  /** Where a parameter is spliced, and how its bound value is converted. */
+  private class Slot(
+    val parameter: Parameter<*>,
+    val kind: ParameterKind,
+    val options: QueryDslOptions,
+  ) {
+
+    fun json(value: Any?): ByteArray {
+      requireNotNull(value) { "$parameter is bound to null" }
+      val field = parameter.field
+      val json =
+        when (kind) {
+          ParameterKind.TERM,
+          ParameterKind.MATCH -> field.toFieldValue(value)?.jsonKey()
+          ParameterKind.TERMS -> {
+            require(value is Collection<*>) { "$parameter is used by a terms query, see bindToAll" }
+            val values = field.toFieldValues(value)
+            require(values.size <= options.maxTermsPerQuery) {
+              "$parameter is bound to ${values.size} values, above maxTermsPerQuery " +
+                "(${options.maxTermsPerQuery})"
+            }
+            values.joinToString(",") { it.jsonKey() }
+          }
+          ParameterKind.LOWER_BOUND,
+          ParameterKind.UPPER_BOUND -> {
+            require(value is Comparable<*>) { "$parameter is used by a range query" }
+            val upper = kind == ParameterKind.UPPER_BOUND
+            @Suppress("UNCHECKED_CAST")
+            toJsonData(value as Comparable<Any>, upper, options.dateRounding)?.first?.jsonKey()
+          }
+        }
+      requireNotNull(json) { "$parameter cannot be bound to $value" }
+      return json.toByteArray(Charsets.UTF_8)
+    }
+  }
+
+  companion object {
+    private const val VALUE_SIZE_HINT = 16
+    private val MARKER = Regex("\"$MARKER_PREFIX(\\d+):([A-Z_]+)$MARKER_SUFFIX\"")
+
+    /**
+     * Builds the bool query of [block] once, as [boolQueryDsl] would with [options], and splits
+     * its JSON around the [parameters] it uses.
+     *
+     * @throws IllegalArgumentException if the query uses a parameter missing from [parameters], or
+     *   if building it drops a parameter used by [block]
+     */
+    fun prepare(
+      vararg parameters: Parameter<*>,
+      options: QueryDslOptions = QueryDslOptions.DEFAULT,
+      block: BoolQueryDsl.() -> Unit,
+    ): PreparedQuery {
+      val used = mutableListOf<Parameter<*>>()
+      val query = usingParameters(used) { BoolQuery.of { it.boolQueryDsl(options, block) } }
+      val json = Query(query).jsonKey()
+      val segments = mutableListOf<ByteArray>()
+      val slots = mutableListOf<Slot>()
+      var start = 0
+      MARKER.findAll(json).forEach { match ->
+        val id = match.groupValues[1].toLong()
+        val parameter =
+          parameters.firstOrNull { it.id == id }
+            ?: throw IllegalArgumentException("A parameter used by the query is not prepared")
+        segments += json.substring(start, match.range.first).toByteArray(Charsets.UTF_8)
+        slots += Slot(parameter, ParameterKind.valueOf(match.groupValues[2]), options)
+        start = match.range.last + 1
+      }
+      segments += json.substring(start).toByteArray(Charsets.UTF_8)
+      used.groupingBy { it }.eachCount().forEach { (parameter, uses) ->
+        require(slots.count { it.parameter === parameter } >= uses) {
+          "$parameter is dropped from the query, e.g. by a rewrite deciding on its value"
+        }
+      }
+      return PreparedQuery(segments, slots)
+    }
+
+    /** Runs [build], collecting in [used] the parameter of each marker it creates. */
+    private fun <T> usingParameters(used: MutableList<Parameter<*>>, build: () -> T): T {
+      val enclosing = PARAMETERS_IN_USE.get()
+      PARAMETERS_IN_USE.set(used)
+      try {
+        return build()
+      } finally {
+        PARAMETERS_IN_USE.set(enclosing)
+      }
+    }
+  }
+}
+
+/**
+ * A typed placeholder for a value of [field] in a [PreparedQuery], created with [parameter] and
+ * bound with [bindTo] or [bindToAll].
+ */
+class Parameter<T> internal constructor(val field: Metamodel<T>) {
+
+  internal val id: Long = NEXT_PARAMETER_ID.incrementAndGet()
+
+  /** Binds [value] to this parameter. */
+  infix fun bindTo(value: T): ParameterBinding = ParameterBinding(this, value)
+
+  /** Binds [values] to this parameter, when used by a terms query. */
+  infix fun bindToAll(values: Collection<T>): ParameterBinding = ParameterBinding(this, values)
+
+  /** The JSON string standing for this parameter in a query built on [on]. */
+  internal fun marker(on: Metamodel<*>, kind: ParameterKind): String {
+    require(on === field) { "$this cannot be used on ${on.path()}" }
+    PARAMETERS_IN_USE.get()?.add(this)
+    return "$MARKER_PREFIX$id:${kind.name}$MARKER_SUFFIX"
+  }
+
+  /** Whether range bounds of this parameter are sent as epoch millis. */
+  internal val isDate: Boolean
+    get() =
+      field.fieldClass()?.java?.let {
+        Temporal::class.java.isAssignableFrom(it) || Date::class.java.isAssignableFrom(it)
+      } == true
+
+  override fun toString() = "Parameter(${field.path()})"
+}
+
+/** Creates a [Parameter] for values of this field. */
+fun <T> Metamodel<T>.parameter(): Parameter<T> = Parameter(this)
+
+/** A value bound to a [Parameter], see [PreparedQuery.render]. */
+class ParameterBinding internal constructor(
+  internal val parameter: Parameter<*>,
+  internal val value: Any?,
+)
+
+/** The query a parameter is used by, deciding how its bound value is converted. */
+internal enum class ParameterKind {
+  TERM,
+  TERMS,
+  MATCH,
+  LOWER_BOUND,
+  UPPER_BOUND,
+}
+
+private const val MARKER_PREFIX = "@@metalastic-parameter:"
+private const val MARKER_SUFFIX = "@@"
+private val NEXT_PARAMETER_ID = AtomicLong()
+
+/** Parameters used while [PreparedQuery.prepare] builds a query on the current thread. */
+private val PARAMETERS_IN_USE = ThreadLocal<MutableList<Parameter<*>>?>()
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.FollowListTestDocument
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
+import com.google.common.collect.Range
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.should
+
+/** Tests for the optimization pass over built bool queries. */
+class BoolQueryOptimizerTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+    val document = FollowListTestDocument
+
+    should("flatten nested filters and remove duplicate clauses") {
+      val query =
+        BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  meta.country term "France"
+                  bool {
+                    must + { meta.active term true }
+                    filter + { bool { filter + { meta.country term "France" } } }
+                    mustNot + { meta.status term TestStatus.INACTIVE }
+                  }
+                }
+            }
+          }
+          .optimize()
+
+      query.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "filter": [
+                {"term": {"country": {"value": "France"}}},
+                {"term": {"active": {"value": true}}}
+              ],
+              "must_not": [
+                {"term": {"status": {"value": "INACTIVE"}}}
+              ]
+            }
+          }
+        """
+        )
+    }
+
+    should("unwrap single-clause bools") {
+      val query =
+        BoolQuery.of { it.boolQueryDsl { must + { bool { should + { meta.name match "laptop" } } } } }
+          .optimize()
+
+      query.toJsonString() should
+        jsonStrictMatcher("""{"match": {"name": {"query": "laptop"}}}""")
+    }
+
+    should("keep a single filter clause in query context") {
+      val query = BoolQuery.of { it.boolQueryDsl { filter + { meta.active term true } } }.optimize()
+
+      query.toJsonString() should
+        jsonStrictMatcher("""{"bool": {"filter": [{"term": {"active": {"value": true}}}]}}""")
+    }
+
+    should("merge sibling term and terms queries on the same field in a filtering should") {
+      val query =
+        BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  bool {
+                    should +
+                      {
+                        meta.country term "France"
+                        meta.country.terms(listOf("Belgium", "France"))
+                        meta.category term "books"
+                      }
+                  }
+                }
+            }
+          }
+          .optimize(scoring = false)
+
+      query.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "should": [
+                {"terms": {"country": ["France", "Belgium"]}},
+                {"term": {"category": {"value": "books"}}}
+              ]
+            }
+          }
+        """
+        )
+    }
+
+    should("intersect ranges on the same single-valued field") {
+      val query =
+        BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  document.owner.score.range(Range.closed(1.0, 5.0))
+                  document.owner.score greaterThan 2.0
+                }
+            }
+          }
+          .optimize(document, scoring = false)
+
+      query.toJsonString() should
+        jsonStrictMatcher("""{"range": {"owner.score": {"gt": 2.0, "lte": 5.0}}}""")
+    }
+
+    should("keep ranges on multi-valued fields") {
+      val query =
+        BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  +document.followed.toRangeQuery(Range.atLeast("a"))
+                  +document.followed.toRangeQuery(Range.atMost("m"))
+                }
+            }
+          }
+          .optimize(document, scoring = false)
+
+      query.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "filter": [
+                {"range": {"followed": {"gte": "a"}}},
+                {"range": {"followed": {"lte": "m"}}}
+              ]
+            }
+          }
+        """
+        )
+    }
+
+    should("keep ranges on fields whose bounds compare as strings") {
+      val query =
+        BoolQuery.of {
+            it.boolQueryDsl {
+              filter +
+                {
+                  +document.owner.author.toRangeQuery(Range.atLeast("10"))
+                  +document.owner.author.toRangeQuery(Range.atLeast("9"))
+                }
+            }
+          }
+          .optimize(document, scoring = false)
+
+      query.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "filter": [
+                {"range": {"owner.author": {"gte": "10"}}},
+                {"range": {"owner.author": {"gte": "9"}}}
+              ]
+            }
+          }
+        """
+        )
+    }
+  })
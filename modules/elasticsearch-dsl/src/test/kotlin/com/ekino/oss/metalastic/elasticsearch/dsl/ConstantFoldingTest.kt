@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.booleans.shouldBeFalse
+import io.kotest.matchers.booleans.shouldBeTrue
+import io.kotest.matchers.should
+
+/** Tests for the folding of queries on constant keyword fields of known value. */
+class ConstantFoldingTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+    val options = QueryDslOptions(foldConstants = true)
+
+    should("drop filters the constant value satisfies") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            filter +
+              {
+                meta.dataset term "logs"
+                meta.dataset.terms(listOf("metrics", "logs"))
+                meta.dataset prefix "lo"
+                meta.country term "France"
+              }
+          }
+        }
+
+      query.matchesNothing().shouldBeFalse()
+      Query(query).toJsonString() should
+        jsonStrictMatcher("""{"bool": {"filter": [{"term": {"country": {"value": "France"}}}]}}""")
+    }
+
+    should("short-circuit the whole query when a required clause cannot match") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            must + { meta.name match "laptop" }
+            filter + { bool { must + { meta.dataset term "metrics" } } }
+          }
+        }
+
+      query.matchesNothing().shouldBeTrue()
+      Query(query).toJsonString() should
+        jsonStrictMatcher("""{"bool": {"filter": [{"match_none": {}}]}}""")
+    }
+
+    should("drop branches that cannot match from should and must_not") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            should +
+              {
+                bool { filter + { meta.dataset term "metrics" } }
+                meta.country term "France"
+              }
+            mustNot + { meta.dataset prefix "metric" }
+          }
+        }
+
+      Query(query).toJsonString() should
+        jsonStrictMatcher("""{"bool": {"should": [{"term": {"country": {"value": "France"}}}]}}""")
+    }
+
+    should("match nothing when every required should clause is folded away") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            should + { meta.dataset.terms(listOf("metrics", "traces")) }
+          }
+        }
+
+      query.matchesNothing().shouldBeTrue()
+    }
+
+    should("keep should clauses optional when dropping folded filters") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            filter + { meta.dataset term "logs" }
+            should + { meta.country term "France" }
+          }
+        }
+
+      Query(query).toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "filter": [{"match_all": {}}],
+              "should": [{"term": {"country": {"value": "France"}}}]
+            }
+          }
+        """
+        )
+    }
+
+    should("keep queries with a boost or a name") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            filter + { meta.dataset.term("logs") { queryName("dataset") } }
+          }
+        }
+
+      Query(query).toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "filter": [{"term": {"dataset": {"value": "logs", "_name": "dataset"}}}]
+            }
+          }
+        """
+        )
+    }
+
+    should("leave constant keyword queries as written without the option") {
+      val query = BoolQuery.of { it.boolQueryDsl { filter + { meta.dataset term "metrics" } } }
+
+      query.matchesNothing().shouldBeFalse()
+      Query(query).toJsonString() should
+        jsonStrictMatcher("""{"bool": {"filter": [{"term": {"dataset": {"value": "metrics"}}}]}}""")
+    }
+  })
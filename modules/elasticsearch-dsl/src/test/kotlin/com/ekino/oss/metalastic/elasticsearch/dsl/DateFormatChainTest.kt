@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import org.springframework.data.elasticsearch.annotations.DateFormat
+
+/** Tests for the precompiled date format chains used to format date field values. */
+class DateFormatChainTest :
+  ShouldSpec({
+    val instant = Instant.parse("2024-03-01T10:15:30Z")
+
+    should("share one chain per list of formats") {
+      DateFormatChain.of(listOf(DateFormat.date, DateFormat.epoch_second)) shouldBeSameInstanceAs
+        DateFormatChain.of(listOf(DateFormat.date, DateFormat.epoch_second))
+      DateFormatChain.of(emptyList()) shouldBeSameInstanceAs DateFormatChain.DEFAULT
+    }
+
+    should("use the first format able to print each temporal type") {
+      val chain = DateFormatChain.of(listOf(DateFormat.date, DateFormat.epoch_second))
+
+      chain.format(LocalDate.of(2024, 3, 1)) shouldBe "2024-03-01"
+      chain.format(instant) shouldBe "1709288130"
+      // Probed once per type: later calls start at the remembered format
+      repeat(3) {
+        chain.format(instant) shouldBe "1709288130"
+        chain.format(LocalDate.of(2024, 3, 2)) shouldBe "2024-03-02"
+      }
+    }
+
+    should("follow Elasticsearch's default chain when no formats are configured") {
+      DateFormatChain.DEFAULT.format(instant) shouldBe "1709288130000"
+      val offsetDateTime = OffsetDateTime.of(2024, 3, 1, 10, 15, 30, 0, ZoneOffset.UTC)
+      DateFormatChain.DEFAULT.format(offsetDateTime) shouldBe "2024-03-01T10:15:30.000Z"
+      DateFormatChain.DEFAULT.format(LocalDateTime.of(2024, 3, 1, 10, 15, 30)) shouldBe
+        "2024-03-01"
+    }
+
+    should("return null when no format applies") {
+      DateFormatChain.of(listOf(DateFormat.date)).format(instant) shouldBe null
+    }
+
+    should("only apply formats whose fields the value supports") {
+      val chain =
+        DateFormatChain.of(
+          listOf(DateFormat.date_hour_minute_second, DateFormat.date_optional_time)
+        )
+
+      chain.format(LocalDateTime.of(2024, 3, 1, 10, 15, 30)) shouldBe "2024-03-01T10:15:30"
+      // The optional time section does not make date_optional_time inapplicable to a date
+      chain.format(LocalDate.of(2024, 3, 1)) shouldBe "2024-03-01"
+      chain.format(instant) shouldBe null
+    }
+
+    should("keep the chain of a date field") {
+      val createdAt = ComprehensiveTestMetamodel.createdAt
+
+      createdAt.formatChain shouldBeSameInstanceAs createdAt.formatChain
+      createdAt.formatChain shouldBeSameInstanceAs DateFormatChain.DEFAULT
+    }
+  })
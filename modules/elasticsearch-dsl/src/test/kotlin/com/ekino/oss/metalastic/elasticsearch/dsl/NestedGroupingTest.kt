@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ReviewedTestDocument
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.should
+
+/** Tests for the grouping of clauses on the same nested path. */
+class NestedGroupingTest :
+  ShouldSpec({
+    val document = ReviewedTestDocument
+    val grouping = QueryDslOptions(nestedGrouping = NestedGrouping(document))
+
+    should("group must_not clauses on the same nested path") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(grouping) {
+            mustNot +
+              {
+                document.title term "draft"
+                document.reviews.author term "bot"
+                document.reviews.nested { must + { document.reviews.verified term false } }
+              }
+          }
+        }
+
+      Query(query).toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "must_not": [
+                {"term": {"title": {"value": "draft"}}},
+                {
+                  "nested": {
+                    "path": "reviews",
+                    "query": {
+                      "bool": {
+                        "should": [
+                          {"term": {"reviews.author": {"value": "bot"}}},
+                          {"bool": {"must": [{"term": {"reviews.verified": {"value": false}}}]}}
+                        ]
+                      }
+                    }
+                  }
+                }
+              ]
+            }
+          }
+        """
+        )
+    }
+
+    should("keep should clauses counted by minimum_should_match in their own nested query") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(grouping) {
+            should +
+              {
+                document.reviews.author term "alice"
+                document.reviews.author term "bob"
+                document.title term "draft"
+              }
+            minimumShouldMatch(2)
+          }
+        }
+
+      Query(query).toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "should": [
+                {"nested": {"path": "reviews", "query": {"term": {"reviews.author": {"value": "alice"}}}}},
+                {"nested": {"path": "reviews", "query": {"term": {"reviews.author": {"value": "bob"}}}}},
+                {"term": {"title": {"value": "draft"}}}
+              ],
+              "minimum_should_match": "2"
+            }
+          }
+        """
+        )
+    }
+
+    should("wrap filter clauses in their own nested query by default") {
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(grouping) {
+            filter +
+              {
+                document.reviews.author term "alice"
+                document.reviews.verified term true
+              }
+          }
+        }
+
+      Query(query).toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "filter": [
+                {"nested": {"path": "reviews", "query": {"term": {"reviews.author": {"value": "alice"}}}}},
+                {"nested": {"path": "reviews", "query": {"term": {"reviews.verified": {"value": true}}}}}
+              ]
+            }
+          }
+        """
+        )
+    }
+
+    should("group filter clauses on the same nested object when requested") {
+      val options =
+        QueryDslOptions(nestedGrouping = NestedGrouping(document, sameNestedObject = true))
+      val query =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            filter +
+              {
+                document.reviews.author term "alice"
+                document.reviews.verified term true
+              }
+          }
+        }
+
+      Query(query).toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "bool": {
+              "filter": [
+                {
+                  "nested": {
+                    "path": "reviews",
+                    "query": {
+                      "bool": {
+                        "filter": [
+                          {"term": {"reviews.author": {"value": "alice"}}},
+                          {"term": {"reviews.verified": {"value": true}}}
+                        ]
+                      }
+                    }
+                  }
+                }
+              ]
+            }
+          }
+        """
+        )
+    }
+  })
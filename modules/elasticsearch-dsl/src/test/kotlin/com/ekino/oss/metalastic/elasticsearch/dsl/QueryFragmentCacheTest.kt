@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.elasticsearch.dsl
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
+import com.ekino.oss.metalastic.core.DateField
+import com.ekino.oss.metalastic.core.Document
+import com.ekino.oss.metalastic.core.KeywordField
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.toJsonString
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.should
+import io.kotest.matchers.shouldBe
+import io.kotest.matchers.types.shouldBeSameInstanceAs
+import io.kotest.matchers.types.shouldNotBeSameInstanceAs
+import java.time.Instant
+import kotlin.reflect.typeOf
+import org.springframework.data.elasticsearch.annotations.DateFormat
+
+/** Tests for constant query fragments built once and reused across requests. */
+class QueryFragmentCacheTest :
+  ShouldSpec({
+    val meta = ComprehensiveTestMetamodel
+
+    should("reuse the same query instances across requests") {
+      val options = QueryDslOptions(fragmentCache = QueryFragmentCache())
+      fun request(name: String) =
+        BoolQuery.of {
+          it.boolQueryDsl(options) {
+            must + { meta.name match name }
+            filter +
+              {
+                meta.status constantTerm TestStatus.ACTIVE
+                constant(meta.country, "France") {
+                  meta.country term "France"
+                  meta.active term true
+                }
+              }
+          }
+        }
+
+      val first = request("laptop")
+      val second = request("phone")
+
+      second.filter()[0] shouldBeSameInstanceAs first.filter()[0]
+      second.filter()[1] shouldBeSameInstanceAs first.filter()[1]
+      second.filter()[2] shouldBeSameInstanceAs first.filter()[2]
+      second.must()[0] shouldNotBeSameInstanceAs first.must()[0]
+      options.fragmentCache?.stats() shouldBe
+        QueryFragmentCache.Stats(hits = 2, misses = 2, evictions = 0, size = 2)
+      second.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "must": [{"match": {"name": {"query": "phone"}}}],
+            "filter": [
+              {"term": {"status": {"value": "ACTIVE"}}},
+              {"term": {"country": {"value": "France"}}},
+              {"term": {"active": {"value": true}}}
+            ]
+          }
+        """
+        )
+    }
+
+    should("key constant terms by path and value") {
+      val cache = QueryFragmentCache()
+      val options = QueryDslOptions(fragmentCache = cache)
+      fun request(country: String) =
+        BoolQuery.of { it.boolQueryDsl(options) { filter + { meta.country constantTerm country } } }
+
+      val france = request("France")
+      val belgium = request("Belgium")
+
+      belgium.filter()[0] shouldNotBeSameInstanceAs france.filter()[0]
+      request("France").filter()[0] shouldBeSameInstanceAs france.filter()[0]
+      cache.stats().hitRate shouldBe 1.0 / 3
+    }
+
+    should("keep separate fragments for fields at the same path of different documents") {
+      val options = QueryDslOptions(foldConstants = true, fragmentCache = QueryFragmentCache())
+      val instant = Instant.parse("2024-03-01T10:15:30Z")
+      fun request(block: QueryVariantDsl.() -> Unit) =
+        BoolQuery.of { it.boolQueryDsl(options) { filter + block } }
+
+      request {
+        meta.dataset constantTerm "metrics"
+        meta.createdAt constantTerm instant
+      }
+      val other = request {
+        SamePathsTestDocument.dataset constantTerm "metrics"
+        SamePathsTestDocument.createdAt constantTerm instant
+      }
+
+      options.fragmentCache?.stats()?.misses shouldBe 4
+      other.toJsonString() should
+        jsonStrictMatcher(
+          """
+          {
+            "filter": [
+              {"term": {"dataset": {"value": "metrics"}}},
+              {"term": {"createdAt": {"value": "1709288130"}}}
+            ]
+          }
+        """
+        )
+    }
+
+    should("evict the least recently used fragments beyond the maximum size") {
+      val cache = QueryFragmentCache(maxSize = 2)
+      val options = QueryDslOptions(fragmentCache = cache)
+      fun request(country: String) =
+        BoolQuery.of { it.boolQueryDsl(options) { filter + { meta.country constantTerm country } } }
+
+      val france = request("France")
+      request("Belgium")
+      request("France")
+      request("Spain")
+
+      request("France").filter()[0] shouldBeSameInstanceAs france.filter()[0]
+      cache.stats() shouldBe QueryFragmentCache.Stats(hits = 2, misses = 3, evictions = 1, size = 2)
+    }
+
+    should("build the fragments every time without a cache") {
+      fun request() =
+        BoolQuery.of { it.boolQueryDsl { filter + { meta.active constantTerm true } } }
+
+      request().filter()[0] shouldNotBeSameInstanceAs request().filter()[0]
+      request().toJsonString() should
+        jsonStrictMatcher("""{"filter": [{"term": {"active": {"value": true}}}]}""")
+    }
+
+    should("reset the statistics when cleared") {
+      val cache = QueryFragmentCache()
+      BoolQuery.of {
+        it.boolQueryDsl(QueryDslOptions(fragmentCache = cache)) {
+          filter + { meta.active constantTerm true }
+        }
+      }
+
+      cache.clear()
+
+      cache.stats() shouldBe QueryFragmentCache.Stats(hits = 0, misses = 0, evictions = 0, size = 0)
+    }
+
+    should("reject a non-positive maximum size") {
+      shouldThrow<IllegalArgumentException> { QueryFragmentCache(maxSize = 0) }
+    }
+  })
+
+/** Fields at the paths of a constant keyword and a date field of [ComprehensiveTestMetamodel]. */
+private object SamePathsTestDocument : Document<Any>(fieldType = typeOf<Any>()) {
+  val dataset: KeywordField<String> = KeywordField(this, "dataset", typeOf<String>())
+  val createdAt: DateField<Instant> =
+    DateField(this, "createdAt", typeOf<Instant>(), listOf(DateFormat.epoch_second))
+
+  override fun indexName() = "same-paths"
+}
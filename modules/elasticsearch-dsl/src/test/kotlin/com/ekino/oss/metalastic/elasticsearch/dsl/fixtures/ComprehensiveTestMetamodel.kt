@@ -4,11 +4,14 @@
 package com.ekino.oss.metalastic.elasticsearch.dsl.fixtures
 
 import com.ekino.oss.metalastic.core.BooleanField
+import com.ekino.oss.metalastic.core.ConstantKeywordField
 import com.ekino.oss.metalastic.core.DateField
+import com.ekino.oss.metalastic.core.Document
 import com.ekino.oss.metalastic.core.DoubleField
 import com.ekino.oss.metalastic.core.FloatField
 import com.ekino.oss.metalastic.core.IntegerField
 import com.ekino.oss.metalastic.core.KeywordField
+import com.ekino.oss.metalastic.core.LongField
 import com.ekino.oss.metalastic.core.ObjectField
 import com.ekino.oss.metalastic.core.TextField
 import java.time.Instant
@@ -33,8 +36,13 @@ object ComprehensiveTestMetamodel : ObjectField<Any>(null, "", false, typeOf<Any
   val country: KeywordField<String> = KeywordField(this, "country", typeOf<String>())
   val category: KeywordField<String> = KeywordField(this, "category", typeOf<String>())
 
+  // ===== CONSTANT KEYWORD FIELD =====
+  val dataset: ConstantKeywordField<String> =
+    ConstantKeywordField(this, "dataset", typeOf<String>(), "logs")
+
   // ===== NUMERIC FIELDS =====
   val age: IntegerField<Int> = IntegerField(this, "age", typeOf<Int>())
+  val views: LongField<Long> = LongField(this, "views", typeOf<Long>())
   val price: DoubleField<Double> = DoubleField(this, "price", typeOf<Double>())
   val rating: FloatField<Float> = FloatField(this, "rating", typeOf<Float>())
 
@@ -58,6 +66,23 @@ object ComprehensiveTestMetamodel : ObjectField<Any>(null, "", false, typeOf<Any
   val reviews: ReviewField = ReviewField(this, "reviews", true)
 }
 
+/** Side index document holding value lists, for testing terms lookup queries */
+object FollowListTestDocument : Document<Any>(fieldType = typeOf<Any>()) {
+  val followed: KeywordField<Collection<String>> =
+    KeywordField(this, "followed", typeOf<Collection<String>>())
+  val owner: ReviewField = ReviewField(this, "owner", false)
+
+  override fun indexName() = "follow-lists"
+}
+
+/** Document with a nested field, for testing the grouping of nested clauses */
+object ReviewedTestDocument : Document<Any>(fieldType = typeOf<Any>()) {
+  val title: KeywordField<String> = KeywordField(this, "title", typeOf<String>())
+  val reviews: ReviewField = ReviewField(this, "reviews", true)
+
+  override fun indexName() = "reviewed"
+}
+
 /** Nested field for testing nested queries */
 class ReviewField(parent: ObjectField<*>?, fieldName: String, nested: Boolean) :
   ObjectField<Any>(parent, fieldName, nested, typeOf<Any>()) {
@@ -5,14 +5,23 @@ package com.ekino.oss.metalastic.elasticsearch.dsl.query
 
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery
 import co.elastic.clients.elasticsearch._types.query_dsl.Query
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery
+import com.ekino.oss.metalastic.elasticsearch.dsl.QueryDslOptions
 import com.ekino.oss.metalastic.elasticsearch.dsl.boolQueryDsl
 import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.ComprehensiveTestMetamodel
+import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.FollowListTestDocument
 import com.ekino.oss.metalastic.elasticsearch.dsl.fixtures.TestStatus
 import com.ekino.oss.metalastic.elasticsearch.dsl.toJsonString
 import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonLenientMatcher
+import com.ekino.oss.metalastic.elasticsearch.dsl.utils.jsonStrictMatcher
 import com.ekino.oss.metalastic.elasticsearch.dsl.utils.shouldHaveStructure
+import io.kotest.assertions.throwables.shouldThrow
 import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.shouldBe
 import io.kotest.matchers.string.shouldContain
+import java.time.Instant
+import java.time.LocalDateTime
+import java.util.Date
 
 /**
  * Tests for term-level queries: term, terms, exist Migrated from BasicEnhancedDslTest.kt and
@@ -254,6 +263,375 @@ class TermLevelQueriesTest :
       }
     }
 
+    context("terms query — primitive arrays and collections") {
+      should("keep the order and duplicates of a LongArray") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl { filter + { meta.views terms longArrayOf(3, 1, 3) } }
+
+        val json = Query(builder.build()).toJsonString()
+        json shouldContain """"terms":{"views":[3,1,3]}"""
+      }
+
+      should("work with an IntArray and a block") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter + { meta.age.terms(intArrayOf(30, 18)) { queryName("ages") } }
+        }
+
+        val json = Query(builder.build()).toJsonString()
+        json shouldContain """"terms":{"age":[30,18]"""
+        json shouldContain """"_name":"ages""""
+      }
+
+      should("work with collections of Long and Int values") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter +
+            {
+              meta.views terms listOf(5L, 5L, Long.MAX_VALUE)
+              meta.age.terms(setOf(18, 21)) { boost(2.0f) }
+            }
+        }
+
+        val json = Query(builder.build()).toJsonString()
+        json shouldContain """"terms":{"views":[5,5,9223372036854775807]}"""
+        json shouldContain """"terms":{"age":[18,21]"""
+        json shouldContain """"boost":2.0"""
+      }
+
+      should("skip the query when the array or collection is null") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter +
+            {
+              val noLongs: LongArray? = null
+              val noInts: IntArray? = null
+              val noLongList: List<Long>? = null
+              val noIntList: List<Int>? = null
+              meta.views terms noLongs
+              meta.age terms noInts
+              meta.views terms noLongList
+              meta.age terms noIntList
+              meta.views.distinctTerms(noLongs)
+              meta.age.distinctTerms(noInts)
+              meta.active term true
+            }
+        }
+
+        builder.build().shouldHaveStructure(filterCount = 1)
+      }
+
+      should("skip the query when the array or collection is empty") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter +
+            {
+              meta.views terms longArrayOf()
+              meta.age terms intArrayOf()
+              meta.views terms emptyList<Long>()
+              meta.age terms emptySet<Int>()
+              meta.views.distinctTerms(longArrayOf())
+              meta.age.distinctTerms(intArrayOf())
+              meta.active term true
+            }
+        }
+
+        builder.build().shouldHaveStructure(filterCount = 1)
+      }
+
+      should("send the distinct values in ascending order and leave the array untouched") {
+        val views = longArrayOf(3, 1, 3, 2, 1)
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter +
+            {
+              meta.views.distinctTerms(views)
+              meta.age.distinctTerms(intArrayOf(30, 18, 30)) { queryName("ages") }
+            }
+        }
+
+        val json = Query(builder.build()).toJsonString()
+        json shouldContain """"terms":{"views":[1,2,3]}"""
+        json shouldContain """"terms":{"age":[18,30]"""
+        json shouldContain """"_name":"ages""""
+        views shouldBe longArrayOf(3, 1, 3, 2, 1)
+      }
+    }
+
+    context("terms query — maxTermsPerQuery") {
+      val options = QueryDslOptions(maxTermsPerQuery = 2)
+
+      should("keep a single terms query up to the limit") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl(options) { filter + { meta.views terms longArrayOf(1, 2) } }
+
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher("""{"bool": {"filter": [{"terms": {"views": [1, 2]}}]}}""")
+      }
+
+      should("split the values beyond the limit into terms queries matching any of them") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl(options) { filter + { meta.views terms longArrayOf(1, 2, 3) } }
+
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {
+                    "bool": {
+                      "should": [
+                        {"terms": {"views": [1, 2]}},
+                        {"terms": {"views": [3]}}
+                      ]
+                    }
+                  }
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("split an exact multiple of the limit into full chunks") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl(options) {
+          filter + { meta.country.terms(listOf("FR", "BE", "DE", "ES")) }
+        }
+
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {
+                    "bool": {
+                      "should": [
+                        {"terms": {"country": ["FR", "BE"]}},
+                        {"terms": {"country": ["DE", "ES"]}}
+                      ]
+                    }
+                  }
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("set the boost and name of split terms queries once, on their bool query") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl(options) {
+          should +
+            {
+              meta.country.terms(listOf("FR", "BE", "DE")) {
+                boost(2.0f)
+                queryName("countries")
+              }
+            }
+        }
+
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "should": [
+                  {
+                    "bool": {
+                      "should": [
+                        {"terms": {"country": ["FR", "BE"]}},
+                        {"terms": {"country": ["DE"]}}
+                      ],
+                      "boost": 2.0,
+                      "_name": "countries"
+                    }
+                  }
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("use the query returned by termsOverflow beyond the limit") {
+        val overflows = mutableListOf<Pair<String, Int>>()
+        val overflowOptions =
+          options.copy(
+            termsOverflow = { field, values ->
+              overflows += field.path() to values.size
+              TermsQuery.of { query ->
+                query.field(field.path()).terms { terms ->
+                  terms.lookup { it.index("id-lists").id("large").path("ids") }
+                }
+              }
+            }
+          )
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl(overflowOptions) {
+          filter +
+            {
+              meta.views terms longArrayOf(1, 2)
+              meta.country terms listOf("FR", "BE", "DE")
+            }
+        }
+
+        overflows shouldBe listOf("country" to 3)
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {"terms": {"views": [1, 2]}},
+                  {"terms": {"country": {"index": "id-lists", "id": "large", "path": "ids"}}}
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("split the values when termsOverflow returns null") {
+        var overflows = 0
+        val overflowOptions =
+          options.copy(
+            termsOverflow = { _, _ ->
+              overflows++
+              null
+            }
+          )
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl(overflowOptions) { filter + { meta.age terms intArrayOf(1, 2, 3) } }
+
+        overflows shouldBe 1
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {
+                    "bool": {
+                      "should": [
+                        {"terms": {"age": [1, 2]}},
+                        {"terms": {"age": [3]}}
+                      ]
+                    }
+                  }
+                ]
+              }
+            }
+          """
+          )
+      }
+    }
+
+    context("terms lookup query") {
+      val followList = FollowListTestDocument
+
+      should("fetch the values from a field of another document") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter + { meta.country.termsLookup(followList, "user-1", followList.followed) }
+        }
+
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {
+                    "terms": {
+                      "country": {"index": "follow-lists", "id": "user-1", "path": "followed"}
+                    }
+                  }
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("use the full path of an object field, the routing and the block") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter +
+            {
+              meta.name.termsLookup(followList, "user-1", followList.owner.author, "tenant-1") {
+                queryName("followed-authors")
+              }
+            }
+        }
+
+        Query(builder.build()).toJsonString() should
+          jsonStrictMatcher(
+            """
+            {
+              "bool": {
+                "filter": [
+                  {
+                    "terms": {
+                      "name": {
+                        "index": "follow-lists",
+                        "id": "user-1",
+                        "path": "owner.author",
+                        "routing": "tenant-1"
+                      },
+                      "_name": "followed-authors"
+                    }
+                  }
+                ]
+              }
+            }
+          """
+          )
+      }
+
+      should("skip the query when the id is null or blank") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          filter +
+            {
+              meta.country.termsLookup(followList, null, followList.followed)
+              meta.country.termsLookup(followList, " ", followList.followed)
+              meta.active term true
+            }
+        }
+
+        builder.build().shouldHaveStructure(filterCount = 1)
+      }
+
+      should("reject a path that is not a field of the document") {
+        val exception =
+          shouldThrow<IllegalArgumentException> {
+            BoolQuery.Builder().boolQueryDsl {
+              filter + { meta.country.termsLookup(followList, "user-1", meta.country) }
+            }
+          }
+
+        exception.message shouldBe "'country' is not a field of the 'follow-lists' document"
+      }
+    }
+
     context("containsTerms query") {
       should("work with a Collection of Enum values") {
         val builder = BoolQuery.Builder()
@@ -412,6 +790,41 @@ class TermLevelQueriesTest :
       }
     }
 
+    context("term queries on date fields") {
+      val instant = Instant.parse("2024-03-01T10:15:30Z")
+
+      should("fall back to epoch_millis for Instant values with the default formats") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl { must + { meta.createdAt term instant } }
+
+        val json = Query(builder.build()).toJsonString()
+        json shouldContain """"term":{"createdAt":{"value":"1709288130000"}}"""
+      }
+
+      should("format LocalDateTime values with date_optional_time") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          must + { meta.updatedAt.terms(LocalDateTime.of(2024, 3, 1, 10, 15, 30)) }
+        }
+
+        val json = Query(builder.build()).toJsonString()
+        json shouldContain """"terms":{"updatedAt":["2024-03-01"]}"""
+      }
+
+      should("format every value of a terms query on a Date field") {
+        val builder = BoolQuery.Builder()
+
+        builder.boolQueryDsl {
+          must + { meta.lastModified.terms(Date.from(instant), Date.from(instant.plusSeconds(1))) }
+        }
+
+        val json = Query(builder.build()).toJsonString()
+        json shouldContain """"terms":{"lastModified":["1709288130000","1709288131000"]}"""
+      }
+    }
+
     context("exist query") {
       should("create exists query for field") {
         val builder = BoolQuery.Builder()
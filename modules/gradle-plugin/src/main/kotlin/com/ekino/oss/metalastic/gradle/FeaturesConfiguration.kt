@@ -20,6 +20,18 @@ abstract class FeaturesConfiguration {
    */
   abstract val generatePrivateClassMetamodels: Property<Boolean>
 
+  /**
+   * Construct object sub-trees on first access instead of eagerly (default:
+   * [PluginConstants.Features.DEFAULT_LAZY_OBJECT_FIELDS])
+   */
+  abstract val lazyObjectFields: Property<Boolean>
+
+  /**
+   * Materialize leaf fields on first access from a static per-class field table (default:
+   * [PluginConstants.Features.DEFAULT_COMPACT_METAMODELS])
+   */
+  abstract val compactMetamodels: Property<Boolean>
+
   init {
     // Set up defaults to match existing processor behavior
     generateJavaCompatibility.convention(
@@ -28,5 +40,7 @@ abstract class FeaturesConfiguration {
     generatePrivateClassMetamodels.convention(
       PluginConstants.Features.DEFAULT_GENERATE_PRIVATE_CLASS_METAMODELS
     )
+    lazyObjectFields.convention(PluginConstants.Features.DEFAULT_LAZY_OBJECT_FIELDS)
+    compactMetamodels.convention(PluginConstants.Features.DEFAULT_COMPACT_METAMODELS)
   }
 }
@@ -29,6 +29,8 @@ import org.gradle.api.model.ObjectFactory
  *     features {
  *         generateJavaCompatibility = true
  *         generatePrivateClassMetamodels = false
+ *         lazyObjectFields = false
+ *         compactMetamodels = false
  *     }
  *
  *     reporting {
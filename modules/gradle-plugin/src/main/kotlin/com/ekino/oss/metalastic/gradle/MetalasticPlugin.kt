@@ -339,6 +339,20 @@ class MetalasticPlugin : Plugin<Project> {
             features.generatePrivateClassMetamodels.get().toString(),
           )
         }
+        if (features.lazyObjectFields.isPresent) {
+          argMethod.invoke(
+            kspExtension,
+            PluginConstants.Features.KSP_ARG_LAZY_OBJECT_FIELDS,
+            features.lazyObjectFields.get().toString(),
+          )
+        }
+        if (features.compactMetamodels.isPresent) {
+          argMethod.invoke(
+            kspExtension,
+            PluginConstants.Features.KSP_ARG_COMPACT_METAMODELS,
+            features.compactMetamodels.get().toString(),
+          )
+        }
 
         // Reporting configuration
         val reporting = extension.reporting
@@ -38,10 +38,14 @@ object PluginConstants {
   object Features {
     const val DEFAULT_GENERATE_JAVA_COMPATIBILITY = true
     const val DEFAULT_GENERATE_PRIVATE_CLASS_METAMODELS = false
+    const val DEFAULT_LAZY_OBJECT_FIELDS = false
+    const val DEFAULT_COMPACT_METAMODELS = false
 
     // KSP argument keys
     const val KSP_ARG_JAVA_COMPATIBILITY = "metalastic.generateJavaCompatibility"
     const val KSP_ARG_PRIVATE_CLASS_METAMODELS = "metalastic.generatePrivateClassMetamodels"
+    const val KSP_ARG_LAZY_OBJECT_FIELDS = "metalastic.lazyObjectFields"
+    const val KSP_ARG_COMPACT_METAMODELS = "metalastic.compactMetamodels"
   }
 
   /** Reporting configuration defaults and KSP argument keys. */
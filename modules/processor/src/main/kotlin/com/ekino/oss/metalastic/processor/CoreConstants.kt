@@ -4,7 +4,10 @@
 package com.ekino.oss.metalastic.processor
 
 import com.ekino.oss.metalastic.core.Document
+import com.ekino.oss.metalastic.core.FieldKind
+import com.ekino.oss.metalastic.core.FieldTable
 import com.ekino.oss.metalastic.core.Metamodel
+import com.ekino.oss.metalastic.core.MetamodelRegistry
 import com.ekino.oss.metalastic.core.MultiField
 import com.ekino.oss.metalastic.core.ObjectField
 import com.ekino.oss.metalastic.core.SelfReferencingObject
@@ -16,6 +19,7 @@ object CoreConstants {
   const val CORE_PACKAGE = "com.ekino.oss.metalastic.core"
   const val META_PREFIX = "Meta"
   const val MULTIFIELD_POSTFIX = "MultiField"
+  const val LAZY_TYPE_OF_FUNCTION = "lazyTypeOf"
 
   object MetaModelClass {
     val SIMPLE_NAME = requireNotNull(Metamodel::class.simpleName)
@@ -30,10 +34,25 @@ object CoreConstants {
     val FIELD_TYPE_PROPERTY = PropertyConst("fieldType")
   }
 
+  object ContainerClass {
+    const val LAZY_OBJECT_FUNCTION = "lazyObject"
+    const val COMPACT_FUNCTION = "compact"
+    const val COMPACT_FIELD_FUNCTION = "compactField"
+    const val FIELD_TABLE_PROPERTY = "FIELD_TABLE"
+  }
+
+  object FieldTableClass {
+    val SIMPLE_NAME = requireNotNull(FieldTable::class.simpleName)
+    val FIELD_KIND_SIMPLE_NAME = requireNotNull(FieldKind::class.simpleName)
+  }
+
   object DocumentClass {
     val SIMPLE_NAME = requireNotNull(Document::class.simpleName)
     const val INDEX_NAME_FUNCTION = "indexName"
     const val INDEX_NAME_CONSTANT = "INDEX_NAME"
+    const val PATHS_OBJECT = "Paths"
+    const val FIELD_IDS_OBJECT = "FieldIds"
+    const val FIELD_COUNT_CONSTANT = "FIELD_COUNT"
   }
 
   object MultiFieldClass {
@@ -53,6 +72,14 @@ object CoreConstants {
   object Metamodels {
     const val SIMPLE_NAME = "Metamodels"
     const val ENTRIES_FUNCTION_NAME = "entries"
+    const val DOCUMENT_FUNCTION_NAME = "document"
+    const val METAMODEL_FUNCTION_NAME = "metamodel"
+    const val REGISTRY_PROPERTY_NAME = "registry"
+  }
+
+  object MetamodelRegistryClass {
+    val SIMPLE_NAME = requireNotNull(MetamodelRegistry::class.simpleName)
+    val ENTRY_SIMPLE_NAME = requireNotNull(MetamodelRegistry.Entry::class.simpleName)
   }
 
   const val DOCUMENT_ANNOTATION = "org.springframework.data.elasticsearch.annotations.Document"
@@ -66,6 +93,8 @@ object CoreConstants {
   object ProcessorOptions {
     const val GENERATE_JAVA_COMPATIBILITY = "metalastic.generateJavaCompatibility"
     const val GENERATE_PRIVATE_CLASS_METAMODELS = "metalastic.generatePrivateClassMetamodels"
+    const val LAZY_OBJECT_FIELDS = "metalastic.lazyObjectFields"
+    const val COMPACT_METAMODELS = "metalastic.compactMetamodels"
     const val REPORTING_PATH = "metalastic.reportingPath"
 
     object Metamodels {
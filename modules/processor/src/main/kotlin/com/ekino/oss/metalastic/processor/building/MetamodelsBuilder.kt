@@ -8,6 +8,7 @@ import com.ekino.oss.metalastic.processor.CoreConstants.PRODUCT_NAME
 import com.ekino.oss.metalastic.processor.model.MetalasticGraph
 import com.ekino.oss.metalastic.processor.options.ProcessorOptions
 import com.ekino.oss.metalastic.processor.report.reporter
+import com.squareup.kotlinpoet.ANY
 import com.squareup.kotlinpoet.AnnotationSpec
 import com.squareup.kotlinpoet.ClassName
 import com.squareup.kotlinpoet.CodeBlock
@@ -15,14 +16,21 @@ import com.squareup.kotlinpoet.FileSpec
 import com.squareup.kotlinpoet.FunSpec
 import com.squareup.kotlinpoet.KModifier
 import com.squareup.kotlinpoet.ParameterizedTypeName.Companion.parameterizedBy
+import com.squareup.kotlinpoet.PropertySpec
+import com.squareup.kotlinpoet.STAR
 import com.squareup.kotlinpoet.TypeSpec
+import com.squareup.kotlinpoet.TypeVariableName
 import com.squareup.kotlinpoet.asClassName
+import com.squareup.kotlinpoet.ksp.toClassName
+import kotlin.reflect.KClass
 
 /**
  * MetamodelsBuilder - Pure Metamodels registry generation component.
  *
  * Responsibilities:
- * - Generate the Metamodels object with entries() function
+ * - Generate the Metamodels object backed by a lazily-initialized registry
+ * - Generate document(indexName), document(sourceClass) and metamodel(indexName, path) lookups
+ * - Keep entries() as the opt-in full enumeration
  * - Handle Meta-class naming conflicts with fully qualified names
  * - Apply proper Java interoperability annotations
  * - Generate type-safe sequence of Meta-class instances
@@ -42,7 +50,12 @@ class MetamodelsBuilder(val graph: MetalasticGraph, val options: ProcessorOption
     val metamodelsClass =
       TypeSpec.objectBuilder(metamodelsInfo.className)
         .addGeneratedAnnotation()
-        .addFunction(buildEntriesFunction(documents))
+        .addProperty(buildRegistryProperty(documents))
+        .addFunction(buildEntriesFunction())
+        .addFunction(buildDocumentLookupFunction())
+        .addFunction(buildSourceClassLookupFunction(KClass::class.asClassName()))
+        .addFunction(buildSourceClassLookupFunction(Class::class.asClassName()))
+        .addFunction(buildMetamodelLookupFunction())
         .build()
 
     val fileSpecBuilder =
@@ -59,50 +72,140 @@ class MetamodelsBuilder(val graph: MetalasticGraph, val options: ProcessorOption
   }
 
   /**
-   * Builds the entries() function that returns a sequence of all Meta-class instances. Handles
-   * naming conflicts by using fully qualified names for conflicted classes.
+   * Builds the entries() function enumerating all Meta-class instances. Kept for full enumeration
+   * only, as it initializes every document of the registry.
    */
-  private fun buildEntriesFunction(documents: List<MetalasticGraph.DocumentClass>): FunSpec {
-    val wildcardDocumentType =
-      QClassGenerator.documentClass.parameterizedBy(com.squareup.kotlinpoet.STAR)
+  private fun buildEntriesFunction(): FunSpec {
+    val wildcardDocumentType = QClassGenerator.documentClass.parameterizedBy(STAR)
     val sequenceType = Sequence::class.asClassName().parameterizedBy(wildcardDocumentType)
-    val entriesCode = buildEntriesCodeBlock(documents)
 
     return FunSpec.builder(CoreConstants.Metamodels.ENTRIES_FUNCTION_NAME)
       .addModifiers(KModifier.PUBLIC)
       .withOptionalJavaCompatibility()
       .returns(sequenceType)
-      .addCode(entriesCode)
-      .addKdoc("Returns a sequence of all generated metamodel instances.")
+      .addStatement(
+        "return %L.%L()",
+        CoreConstants.Metamodels.REGISTRY_PROPERTY_NAME,
+        CoreConstants.Metamodels.ENTRIES_FUNCTION_NAME,
+      )
+      .addKdoc(
+        "Returns a sequence of all generated metamodel instances.\n\nEnumerating initializes " +
+          "every document; prefer [%L] for targeted lookups.",
+        CoreConstants.Metamodels.DOCUMENT_FUNCTION_NAME,
+      )
       .build()
   }
 
   /**
-   * Builds the code block for the entries() function. Uses fully qualified names for conflicted
-   * Meta-classes, simple names for others.
+   * Builds the private registry property. Each entry holds the index name and source class name as
+   * literals plus a non-capturing supplier, so no Meta-class is loaded until it is looked up.
    */
-  private fun buildEntriesCodeBlock(documents: List<MetalasticGraph.DocumentClass>): CodeBlock {
-    val codeBuilder = CodeBlock.builder()
-    codeBuilder.add("return sequenceOf(\n")
-    codeBuilder.indent()
+  private fun buildRegistryProperty(documents: List<MetalasticGraph.DocumentClass>): PropertySpec {
+    val entriesCode = CodeBlock.builder()
+    entriesCode.add("%T(\n", registryClass)
+    entriesCode.indent()
+    entriesCode.add("listOf(\n")
+    entriesCode.indent()
 
     documents
       .sortedBy { it.qClassName }
       .forEach { document ->
         val companionAccess =
           ClassName("${document.fullyQualifiedName}.Companion", document.companionPropertyName)
-        codeBuilder.add("%T,\n", companionAccess)
+        entriesCode.add(
+          "%T(%S, %S) { %T },\n",
+          registryEntryClass,
+          document.indexName,
+          document.sourceClassDeclaration.toClassName().reflectionName(),
+          companionAccess,
+        )
       }
 
-    codeBuilder.unindent()
-    codeBuilder.add(")")
+    entriesCode.unindent()
+    entriesCode.add(")\n")
+    entriesCode.unindent()
+    entriesCode.add(")")
 
-    return codeBuilder.build()
+    return PropertySpec.builder(CoreConstants.Metamodels.REGISTRY_PROPERTY_NAME, registryClass)
+      .addModifiers(KModifier.PRIVATE)
+      .initializer(entriesCode.build())
+      .build()
   }
 
+  /** Builds document(indexName), resolving a document metamodel from its index name. */
+  private fun buildDocumentLookupFunction(): FunSpec =
+    FunSpec.builder(CoreConstants.Metamodels.DOCUMENT_FUNCTION_NAME)
+      .addModifiers(KModifier.PUBLIC)
+      .withOptionalJavaCompatibility()
+      .addParameter(INDEX_NAME_PARAMETER, String::class)
+      .returns(QClassGenerator.documentClass.parameterizedBy(STAR).copy(nullable = true))
+      .addStatement(
+        "return %L.%L(%L)",
+        CoreConstants.Metamodels.REGISTRY_PROPERTY_NAME,
+        CoreConstants.Metamodels.DOCUMENT_FUNCTION_NAME,
+        INDEX_NAME_PARAMETER,
+      )
+      .addKdoc("Returns the metamodel of the document stored in [%L].", INDEX_NAME_PARAMETER)
+      .build()
+
+  /**
+   * Builds document(sourceClass) for the given class token type ([KClass] or [Class]), resolving
+   * the metamodel generated for a source class.
+   */
+  private fun buildSourceClassLookupFunction(classToken: ClassName): FunSpec {
+    val typeVariable = TypeVariableName("T", ANY)
+    return FunSpec.builder(CoreConstants.Metamodels.DOCUMENT_FUNCTION_NAME)
+      .addModifiers(KModifier.PUBLIC)
+      .withOptionalJavaCompatibility()
+      .addTypeVariable(typeVariable)
+      .addParameter(SOURCE_CLASS_PARAMETER, classToken.parameterizedBy(typeVariable))
+      .returns(QClassGenerator.documentClass.parameterizedBy(typeVariable).copy(nullable = true))
+      .addStatement(
+        "return %L.%L(%L)",
+        CoreConstants.Metamodels.REGISTRY_PROPERTY_NAME,
+        CoreConstants.Metamodels.DOCUMENT_FUNCTION_NAME,
+        SOURCE_CLASS_PARAMETER,
+      )
+      .addKdoc("Returns the metamodel generated for [%L].", SOURCE_CLASS_PARAMETER)
+      .build()
+  }
+
+  /** Builds metamodel(indexName, path), resolving a field from an Elasticsearch path. */
+  private fun buildMetamodelLookupFunction(): FunSpec =
+    FunSpec.builder(CoreConstants.Metamodels.METAMODEL_FUNCTION_NAME)
+      .addModifiers(KModifier.PUBLIC)
+      .withOptionalJavaCompatibility()
+      .addParameter(INDEX_NAME_PARAMETER, String::class)
+      .addParameter(PATH_PARAMETER, String::class)
+      .returns(metamodelClass.parameterizedBy(STAR).copy(nullable = true))
+      .addStatement(
+        "return %L.%L(%L, %L)",
+        CoreConstants.Metamodels.REGISTRY_PROPERTY_NAME,
+        CoreConstants.Metamodels.METAMODEL_FUNCTION_NAME,
+        INDEX_NAME_PARAMETER,
+        PATH_PARAMETER,
+      )
+      .addKdoc(
+        "Resolves a field path reported by Elasticsearch for the document stored in [%L].",
+        INDEX_NAME_PARAMETER,
+      )
+      .build()
+
   private fun FunSpec.Builder.withOptionalJavaCompatibility() = apply {
     if (options.generateJavaCompatibility) {
       addAnnotation(AnnotationSpec.builder(JvmStatic::class).build())
     }
   }
+
+  private companion object {
+    const val INDEX_NAME_PARAMETER = "indexName"
+    const val PATH_PARAMETER = "path"
+    const val SOURCE_CLASS_PARAMETER = "sourceClass"
+    val registryClass =
+      ClassName(CoreConstants.CORE_PACKAGE, CoreConstants.MetamodelRegistryClass.SIMPLE_NAME)
+    val registryEntryClass =
+      registryClass.nestedClass(CoreConstants.MetamodelRegistryClass.ENTRY_SIMPLE_NAME)
+    val metamodelClass =
+      ClassName(CoreConstants.CORE_PACKAGE, CoreConstants.MetaModelClass.SIMPLE_NAME)
+  }
 }
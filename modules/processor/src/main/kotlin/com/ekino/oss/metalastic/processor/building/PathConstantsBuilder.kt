@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+package com.ekino.oss.metalastic.processor.building
+
+import com.ekino.oss.metalastic.processor.CoreConstants
+import com.ekino.oss.metalastic.processor.model.MetalasticGraph
+import com.ekino.oss.metalastic.processor.model.MultiFieldModel
+import com.ekino.oss.metalastic.processor.model.ObjectFieldModel
+import com.ekino.oss.metalastic.processor.model.SimpleFieldModel
+import com.squareup.kotlinpoet.INT
+import com.squareup.kotlinpoet.KModifier
+import com.squareup.kotlinpoet.PropertySpec
+import com.squareup.kotlinpoet.STRING
+import com.squareup.kotlinpoet.TypeSpec
+
+/**
+ * Builds the `Paths` and `FieldIds` objects of a document metamodel: one `const val` per
+ * Elasticsearch path of the document, and a dense id per path.
+ *
+ * Paths are listed in the order of `Document.pathIndex()` (depth-first, declaration order,
+ * multi-field inner fields right after their main field), so a generated id is also the runtime
+ * `Document.fieldId` of the same path.
+ */
+class PathConstantsBuilder(private val document: MetalasticGraph.DocumentClass) {
+
+  private class PathConstant(val path: String, val name: String)
+
+  private val constants: List<PathConstant> by lazy {
+    val usedNames = mutableSetOf(CoreConstants.DocumentClass.FIELD_COUNT_CONSTANT)
+    collectPaths().map { path ->
+      val base = constantNameOf(path)
+      var name = base
+      var index = 2
+      while (!usedNames.add(name)) {
+        name = "${base}_${index++}"
+      }
+      PathConstant(path, name)
+    }
+  }
+
+  fun buildPathsObject(): TypeSpec =
+    TypeSpec.objectBuilder(CoreConstants.DocumentClass.PATHS_OBJECT)
+      .addKdoc("Absolute Elasticsearch paths of every field of index `%L`.", document.indexName)
+      .addProperties(
+        constants.map {
+          PropertySpec.builder(it.name, STRING)
+            .addModifiers(KModifier.CONST)
+            .initializer("%S", it.path)
+            .build()
+        }
+      )
+      .build()
+
+  fun buildFieldIdsObject(): TypeSpec =
+    TypeSpec.objectBuilder(CoreConstants.DocumentClass.FIELD_IDS_OBJECT)
+      .addKdoc(
+        """
+        |Dense ids of every field of index `%L`, from `0` to [%L] (exclusive), matching
+        |`fieldId` and `fieldById` of the document metamodel. Suited to `BitSet` field sets.
+        """
+          .trimMargin(),
+        document.indexName,
+        CoreConstants.DocumentClass.FIELD_COUNT_CONSTANT,
+      )
+      .addProperty(
+        PropertySpec.builder(CoreConstants.DocumentClass.FIELD_COUNT_CONSTANT, INT)
+          .addModifiers(KModifier.CONST)
+          .initializer("%L", constants.size)
+          .build()
+      )
+      .addProperties(
+        constants.mapIndexed { id, constant ->
+          PropertySpec.builder(constant.name, INT)
+            .addModifiers(KModifier.CONST)
+            .initializer("%L", id)
+            .build()
+        }
+      )
+      .build()
+
+  private fun collectPaths(): List<String> {
+    val paths = LinkedHashSet<String>()
+    fun collect(
+      model: MetalasticGraph.MetaClassModel,
+      prefix: String,
+      visiting: MutableSet<String>,
+    ) {
+      model.fields.forEach { field ->
+        val path =
+          if (prefix.isEmpty()) {
+            field.elasticsearchFieldName
+          } else {
+            "$prefix.${field.elasticsearchFieldName}"
+          }
+        paths.add(path)
+        when (field) {
+          is MultiFieldModel -> field.innerFields.forEach { paths.add("$path.${it.suffix}") }
+          is ObjectFieldModel -> {
+            // Self references (direct or through other models) are terminal objects
+            val target = field.targetModel
+            if (target != null && visiting.add(target.fullyQualifiedName)) {
+              collect(target, path, visiting)
+              visiting.remove(target.fullyQualifiedName)
+            }
+          }
+          is SimpleFieldModel -> Unit
+        }
+      }
+    }
+    collect(document, "", mutableSetOf(document.fullyQualifiedName))
+    return paths.toList()
+  }
+
+  /** `address.zipCode` becomes `ADDRESS_ZIP_CODE`; other characters map to `_`. */
+  private fun constantNameOf(path: String): String {
+    val name = buildString {
+      path.forEachIndexed { index, char ->
+        val wordStart = char.isUpperCase() && index > 0 && path[index - 1].isLowerCase()
+        when {
+          wordStart -> append('_').append(char)
+          char.isLetterOrDigit() -> append(char.uppercaseChar())
+          else -> append('_')
+        }
+      }
+    }
+    return if (name.first().isLetter()) name else "_$name"
+  }
+}
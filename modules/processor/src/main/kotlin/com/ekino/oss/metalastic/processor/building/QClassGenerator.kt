@@ -3,6 +3,8 @@
  */
 package com.ekino.oss.metalastic.processor.building
 
+import com.ekino.oss.metalastic.core.ConstantKeywordValue
+import com.ekino.oss.metalastic.core.FieldKind
 import com.ekino.oss.metalastic.processor.CoreConstants
 import com.ekino.oss.metalastic.processor.CoreConstants.DocumentClass.INDEX_NAME_CONSTANT
 import com.ekino.oss.metalastic.processor.CoreConstants.PRODUCT_NAME
@@ -21,6 +23,7 @@ import com.ekino.oss.metalastic.processor.report.reporter
 import com.google.devtools.ksp.getAnnotationsByType
 import com.squareup.kotlinpoet.AnnotationSpec
 import com.squareup.kotlinpoet.ClassName
+import com.squareup.kotlinpoet.CodeBlock
 import com.squareup.kotlinpoet.FileSpec
 import com.squareup.kotlinpoet.FunSpec
 import com.squareup.kotlinpoet.KModifier
@@ -31,6 +34,7 @@ import com.squareup.kotlinpoet.TypeName
 import com.squareup.kotlinpoet.TypeSpec
 import com.squareup.kotlinpoet.TypeVariableName
 import com.squareup.kotlinpoet.asTypeName
+import com.squareup.kotlinpoet.joinToCode
 import com.squareup.kotlinpoet.ksp.toTypeName
 import com.squareup.kotlinpoet.ksp.toTypeParameterResolver
 import java.util.Date
@@ -60,13 +64,18 @@ class QClassGenerator(
     val typeParameterTAny = TypeVariableName("T : Any?")
     val typeParameterT = TypeVariableName("T")
     val kType = ClassName("kotlin.reflect", "KType")
+    val fieldTableClass =
+      ClassName(CoreConstants.CORE_PACKAGE, CoreConstants.FieldTableClass.SIMPLE_NAME)
+    val fieldKindClass =
+      ClassName(CoreConstants.CORE_PACKAGE, CoreConstants.FieldTableClass.FIELD_KIND_SIMPLE_NAME)
+    val dateFormatClass = ClassName(SPRING_DATA_ELASTICSEARCH_PACKAGE, "DateFormat")
   }
 
   /** Entry point to build TypeSpec for the root model and its inner classes */
   fun buildFieldSpec(): FileSpec =
     FileSpec.builder(rootModel.packageName, rootModel.qClassName)
       .addType(buildTypeSpec(rootModel))
-      .addImport("kotlin.reflect", "typeOf")
+      .addImport(CoreConstants.CORE_PACKAGE, CoreConstants.LAZY_TYPE_OF_FUNCTION)
       .build()
 
   private fun buildTypeSpec(model: MetalasticGraph.MetaClassModel): TypeSpec {
@@ -130,9 +139,26 @@ class QClassGenerator(
       }
     }
 
+    // Compact models materialize their leaf fields from a static table (see core FieldTable)
+    val fieldTable = buildFieldTable(model)
+    if (fieldTable != null) {
+      classBuilder.addInitializerBlock(
+        CodeBlock.of(
+          "%L(%L)\n",
+          CoreConstants.ContainerClass.COMPACT_FUNCTION,
+          CoreConstants.ContainerClass.FIELD_TABLE_PROPERTY,
+        )
+      )
+    }
+
     // Add field properties (common for all models)
-    model.fields.forEach { field ->
-      val fieldProperty = generateFieldProperty(field)
+    model.fields.forEachIndexed { slot, field ->
+      val fieldProperty =
+        if (fieldTable != null && field is SimpleFieldModel) {
+          generateCompactFieldProperty(field, slot)
+        } else {
+          generateFieldProperty(field)
+        }
       classBuilder.addProperty(fieldProperty)
     }
 
@@ -151,10 +177,16 @@ class QClassGenerator(
       classBuilder.addType(nestedTypeSpec)
     }
 
-    // Add companion object only for documents
+    // Add companion object and path constants for documents, and a companion holding the field
+    // table of compact models
     if (model is MetalasticGraph.DocumentClass) {
-      val companionObject = generateCompanionObject(model)
+      val companionObject = generateCompanionObject(model, fieldTable)
       classBuilder.addType(companionObject)
+      val pathConstants = PathConstantsBuilder(model)
+      classBuilder.addType(pathConstants.buildPathsObject())
+      classBuilder.addType(pathConstants.buildFieldIdsObject())
+    } else if (fieldTable != null) {
+      classBuilder.addType(TypeSpec.companionObjectBuilder().addProperty(fieldTable).build())
     }
 
     return classBuilder.build()
@@ -176,15 +208,7 @@ class QClassGenerator(
     val typeName = fieldTypeClass.className.parameterizedBy(sourceTypeName)
 
     if (field.fieldType == FieldType.Date) {
-      val formats =
-        field.sourceDeclaration.getAnnotationsByType(Field::class).first().format.toList()
-
-      val formatArgs =
-        if (formats.isNotEmpty()) {
-          formats.map { ClassName(SPRING_DATA_ELASTICSEARCH_PACKAGE, "DateFormat") to it.name }
-        } else {
-          emptyList()
-        }
+      val formatArgs = dateFormatNames(field).map { dateFormatClass to it }
 
       val formatString = buildString {
         append("%L(%S")
@@ -214,14 +238,131 @@ class QClassGenerator(
         .build()
     }
 
+    val constantValue = constantKeywordValue(field)
+    val initializer =
+      if (constantValue != null) {
+        CodeBlock.of(
+          "%L(%S, %S)",
+          fieldTypeClass.helperMethodName,
+          field.elasticsearchFieldName,
+          constantValue,
+        )
+      } else {
+        CodeBlock.of("%L(%S)", fieldTypeClass.helperMethodName, field.elasticsearchFieldName)
+      }
+
     return PropertySpec.builder(field.name, typeName)
       .addModifiers(KModifier.PUBLIC)
-      .initializer("%L(%S)", fieldTypeClass.helperMethodName, field.elasticsearchFieldName)
+      .initializer(initializer)
       .addKdoc(generateFieldKDoc(field))
       .withOptionalJavaCompatibility()
       .build()
   }
 
+  /** Generates a compact simple field property, materialized from the field table [slot]. */
+  private fun generateCompactFieldProperty(field: SimpleFieldModel, slot: Int): PropertySpec {
+    val fieldTypeClass = FieldTypeMappings.classOf(field.fieldType)
+    val sourceTypeName = field.type.toSafeTypeName(typeParameterResolver)
+    val typeName = fieldTypeClass.className.parameterizedBy(sourceTypeName)
+
+    // Getters cannot carry @JvmField: Java callers go through the getter
+    return PropertySpec.builder(field.name, typeName)
+      .addModifiers(KModifier.PUBLIC)
+      .getter(
+        FunSpec.getterBuilder()
+          .addStatement("return %L(%L)", CoreConstants.ContainerClass.COMPACT_FIELD_FUNCTION, slot)
+          .build()
+      )
+      .addKdoc(generateFieldKDoc(field))
+      .build()
+  }
+
+  /**
+   * Builds the private `FIELD_TABLE` of a compact model: one slot per field, in declaration order.
+   * Object fields and multi-fields are [FieldKind.CONTAINER] slots filled when they register.
+   */
+  private fun buildFieldTable(model: MetalasticGraph.MetaClassModel): PropertySpec? {
+    if (!options.compactMetamodels || model.fields.isEmpty()) {
+      return null
+    }
+    val names = model.fields.map { CodeBlock.of("%S", it.elasticsearchFieldName) }
+    val kinds =
+      model.fields.map { field ->
+        val kind = if (field is SimpleFieldModel) fieldKindOf(field) else FieldKind.CONTAINER
+        CodeBlock.of("%T.%L", fieldKindClass, kind.name)
+      }
+    val fieldTypes =
+      model.fields.map { field ->
+        if (field is SimpleFieldModel) {
+          CodeBlock.of("lazyTypeOf<%T>()", field.type.toSafeTypeName(typeParameterResolver))
+        } else {
+          CodeBlock.of("null")
+        }
+      }
+    val dateFormats =
+      model.fields.map { field ->
+        if (field is SimpleFieldModel && field.fieldType == FieldType.Date) {
+          dateFormatNames(field)
+        } else {
+          emptyList()
+        }
+      }
+
+    val initializer =
+      CodeBlock.builder()
+        .add("%T(\n⇥", fieldTableClass)
+        .add("names = arrayOf(%L),\n", names.joinToCode())
+        .add("kinds = arrayOf(%L),\n", kinds.joinToCode())
+        .add("fieldTypes = arrayOf(%L),\n", fieldTypes.joinToCode())
+    if (dateFormats.any { it.isNotEmpty() }) {
+      val formatCodes =
+        dateFormats.map { formats ->
+          if (formats.isEmpty()) {
+            CodeBlock.of("null")
+          } else {
+            CodeBlock.of(
+              "listOf(%L)",
+              formats.map { CodeBlock.of("%T.%L", dateFormatClass, it) }.joinToCode(),
+            )
+          }
+        }
+      initializer.add("dateFormats = arrayOf(%L),\n", formatCodes.joinToCode())
+    }
+    val constantValues = model.fields.map { (it as? SimpleFieldModel)?.let(::constantKeywordValue) }
+    if (constantValues.any { it != null }) {
+      val valueCodes =
+        constantValues.map { value ->
+          value?.let { CodeBlock.of("%S", it) } ?: CodeBlock.of("null")
+        }
+      initializer.add("constantValues = arrayOf(%L),\n", valueCodes.joinToCode())
+    }
+    initializer.add("⇤)")
+
+    return PropertySpec.builder(CoreConstants.ContainerClass.FIELD_TABLE_PROPERTY, fieldTableClass)
+      .addModifiers(KModifier.PRIVATE)
+      .initializer(initializer.build())
+      .build()
+  }
+
+  private fun fieldKindOf(field: SimpleFieldModel): FieldKind {
+    val className = FieldTypeMappings.classOf(field.fieldType).className
+    return FieldKind.entries.firstOrNull {
+      it != FieldKind.CONTAINER && it.fieldClass.name == className.reflectionName()
+    } ?: error("No field kind for ${className.simpleName} (${field.elasticsearchFieldName})")
+  }
+
+  private fun dateFormatNames(field: SimpleFieldModel): List<String> =
+    field.sourceDeclaration.getAnnotationsByType(Field::class).first().format.map { it.name }
+
+  /** Value declared with [ConstantKeywordValue] on a `constant_keyword` field, if any. */
+  private fun constantKeywordValue(field: SimpleFieldModel): String? =
+    field
+      .takeIf { it.fieldType == FieldType.Constant_Keyword }
+      ?.sourceDeclaration
+      ?.getAnnotationsByType(ConstantKeywordValue::class)
+      ?.firstOrNull()
+      ?.value
+
   /** Generates an object field property. */
   private fun generateObjectFieldProperty(field: ObjectFieldModel): PropertySpec {
     return when {
@@ -238,6 +379,22 @@ class QClassGenerator(
     val sourceTypeName = field.type.toSafeTypeName(typeParameterResolver)
 
     val parameterizedTypeName = qClassName.parameterizedBy(sourceTypeName)
+    if (options.lazyObjectFields) {
+      // Delegated properties cannot carry @JvmField: Java callers go through the getter
+      return PropertySpec.builder(field.name, parameterizedTypeName)
+        .addModifiers(KModifier.PUBLIC)
+        .delegate(
+          "%L(%S) { %T(this, %S, %L, lazyTypeOf<%T>()) }",
+          CoreConstants.ContainerClass.LAZY_OBJECT_FUNCTION,
+          field.elasticsearchFieldName,
+          qClassName,
+          field.elasticsearchFieldName,
+          field.nested,
+          sourceTypeName,
+        )
+        .addKdoc(generateFieldKDoc(field))
+        .build()
+    }
     return PropertySpec.builder(field.name, parameterizedTypeName)
       .addModifiers(KModifier.PUBLIC)
       .objectFieldInitializer(field, qClassName)
@@ -251,7 +408,7 @@ class QClassGenerator(
     typeName: TypeName,
   ) = apply {
     initializer(
-      "%T(this, %S, %L, typeOf<%T>())",
+      "%T(this, %S, %L, lazyTypeOf<%T>())",
       typeName,
       field.elasticsearchFieldName,
       field.nested,
@@ -280,7 +437,7 @@ class QClassGenerator(
     return PropertySpec.builder(field.name, objectFieldType)
       .apply {
         initializer(
-          "%T(this, %S, %L, typeOf<%T>())",
+          "%T(this, %S, %L, lazyTypeOf<%T>())",
           objectFieldType,
           field.elasticsearchFieldName,
           field.nested,
@@ -311,7 +468,7 @@ class QClassGenerator(
     return PropertySpec.builder(field.name, objectFieldType)
       .apply {
         initializer(
-          "%T(this, %S, %L, typeOf<%T>())",
+          "%T(this, %S, %L, lazyTypeOf<%T>())",
           objectFieldType,
           field.elasticsearchFieldName,
           field.nested,
@@ -361,12 +518,12 @@ class QClassGenerator(
         .primaryConstructor(buildMultiFieldConstructor())
         .addSuperclassConstructorParameter(CoreConstants.MultiFieldClass.PARENT_PROPERTY.name)
         .addSuperclassConstructorParameter(
-          "%T(${CoreConstants.MultiFieldClass.PARENT_PROPERTY.name}, ${CoreConstants.MultiFieldClass.MAIN_FIELD_PROPERTY}, typeOf<%T>())",
+          "%T(${CoreConstants.MultiFieldClass.PARENT_PROPERTY.name}, ${CoreConstants.MultiFieldClass.MAIN_FIELD_PROPERTY}, lazyTypeOf<%T>())",
           fieldTypeClass.className,
           field.type.toSafeTypeName(typeParameterResolver),
         )
         .addSuperclassConstructorParameter(
-          "typeOf<%T>()",
+          "lazyTypeOf<%T>()",
           field.type.toSafeTypeName(typeParameterResolver),
         )
         .addKdoc(generateMultiFieldClassKDoc(field))
@@ -464,8 +621,13 @@ class QClassGenerator(
   }
 
   /** Generates companion object for Metamodels registry access. */
-  private fun generateCompanionObject(document: MetalasticGraph.DocumentClass): TypeSpec {
+  private fun generateCompanionObject(
+    document: MetalasticGraph.DocumentClass,
+    fieldTable: PropertySpec?,
+  ): TypeSpec {
     val companionBuilder = TypeSpec.companionObjectBuilder()
+    // Declared first: the document instance below reads it while being constructed
+    fieldTable?.let { companionBuilder.addProperty(it) }
 
     // Build the ClassName for the Meta-class
     val qClassName = document.toClassName()
@@ -484,7 +646,7 @@ class QClassGenerator(
     val property =
       PropertySpec.builder(document.companionPropertyName, parameterizedTypeName)
         .addModifiers(KModifier.PUBLIC)
-        .initializer("%T(fieldType = typeOf<%T>())", qClassName, sourceTypeName)
+        .initializer("%T(fieldType = lazyTypeOf<%T>())", qClassName, sourceTypeName)
         .addKdoc(generateCompanionPropertyKdoc(document))
         .withOptionalJavaCompatibility()
         .build()
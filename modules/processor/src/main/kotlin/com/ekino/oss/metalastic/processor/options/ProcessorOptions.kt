@@ -9,6 +9,8 @@ import com.ekino.oss.metalastic.processor.CoreConstants.ProcessorOptions.Metamod
 data class ProcessorOptions(
   val generateJavaCompatibility: Boolean = true,
   val generatePrivateClassMetamodels: Boolean = false,
+  val lazyObjectFields: Boolean = false,
+  val compactMetamodels: Boolean = false,
   val reportingPath: String? = null,
   val metamodelsConfiguration: MetamodelsConfiguration,
 ) {
@@ -26,6 +28,10 @@ data class ProcessorOptions(
         generatePrivateClassMetamodels =
           kspOptions[CoreConstants.ProcessorOptions.GENERATE_PRIVATE_CLASS_METAMODELS]?.toBoolean()
             ?: false,
+        lazyObjectFields =
+          kspOptions[CoreConstants.ProcessorOptions.LAZY_OBJECT_FIELDS]?.toBoolean() ?: false,
+        compactMetamodels =
+          kspOptions[CoreConstants.ProcessorOptions.COMPACT_METAMODELS]?.toBoolean() ?: false,
         reportingPath =
           kspOptions[CoreConstants.ProcessorOptions.REPORTING_PATH]?.takeIf { it.isNotBlank() },
         metamodelsConfiguration = createMetamodelsConfiguration(kspOptions),
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2025 ekino (https://www.ekino.com/)
+ */
+@file:OptIn(ExperimentalCompilerApi::class)
+
+package com.ekino.oss.metalastic.processor
+
+import com.ekino.oss.metalastic.processor.testing.ProcessorTestBuilder
+import io.kotest.core.spec.style.ShouldSpec
+import io.kotest.matchers.string.shouldContain
+import io.kotest.matchers.string.shouldNotContain
+import org.jetbrains.kotlin.compiler.plugin.ExperimentalCompilerApi
+
+/** Tests for the generated source produced by the building phase under the processor options. */
+class BuildingPhaseTestSpec :
+  ShouldSpec({
+    val productSource =
+      """
+      package com.example.test
+      import org.springframework.data.elasticsearch.annotations.Document
+      import org.springframework.data.elasticsearch.annotations.Field
+      import org.springframework.data.elasticsearch.annotations.FieldType
+
+      @Document(indexName = "products")
+      class Product {
+          @Field(type = FieldType.Keyword)
+          val id: String = ""
+
+          @Field(type = FieldType.Object)
+          val address: Address = Address()
+      }
+
+      class Address {
+          @Field(type = FieldType.Keyword)
+          val city: String = ""
+      }
+      """
+        .trimIndent()
+
+    fun generatedProduct(vararg options: Pair<String, String>): String =
+      ProcessorTestBuilder.withKotlinSource("Product.kt", productSource)
+        .withOptions(options.toMap())
+        .testBuildingResults()
+        .qClasses
+        .first { it.name == "MetaProduct" }
+        .toString()
+
+    should("construct object sub-trees eagerly by default") {
+      val generated = generatedProduct()
+
+      generated shouldContain "lazyTypeOf<Address>()"
+      generated shouldNotContain "by lazyObject("
+    }
+
+    should("delegate object sub-trees to lazyObject when lazy object fields are enabled") {
+      val generated =
+        generatedProduct(CoreConstants.ProcessorOptions.LAZY_OBJECT_FIELDS to "true")
+
+      generated shouldContain "by lazyObject(\"address\")"
+      generated shouldContain "keyword<String>(\"id\")"
+    }
+
+    should("materialize leaf fields from a field table when compact metamodels are enabled") {
+      val generated = generatedProduct(CoreConstants.ProcessorOptions.COMPACT_METAMODELS to "true")
+
+      generated shouldContain "compact(FIELD_TABLE)"
+      generated shouldContain "compactField(0)"
+      generated shouldContain "names = arrayOf(\"id\", \"address\")"
+      generated shouldContain "kinds = arrayOf(FieldKind.KEYWORD, FieldKind.CONTAINER)"
+      generated shouldNotContain "keyword<String>(\"id\")"
+    }
+
+    should("generate path constants and dense field ids for every document path") {
+      val generated = generatedProduct()
+
+      generated shouldContain "object Paths"
+      generated shouldContain "const val ADDRESS_CITY: String = \"address.city\""
+      generated shouldContain "object FieldIds"
+      generated shouldContain "const val FIELD_COUNT: Int = 3"
+      generated shouldContain "const val ADDRESS_CITY: Int = 2"
+    }
+  })
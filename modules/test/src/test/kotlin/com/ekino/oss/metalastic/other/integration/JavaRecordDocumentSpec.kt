@@ -74,4 +74,37 @@ class JavaRecordDocumentSpec :
       // Nested records are not @Document and must stay out of the registry
       registered.map { it.indexName() } shouldNotBe listOf("address", "tags")
     }
+
+    should("resolve record fields from their index name and path") {
+      TestMetamodels.document("document_in_test") shouldBe MetaDocumentInTest.documentInTest
+      TestMetamodels.metamodel("document_in_test", "address.city") shouldBe
+        MetaDocumentInTest.documentInTest.address.city
+      TestMetamodels.metamodel("document_in_test", "code.search") shouldBe
+        MetaDocumentInTest.documentInTest.code.search
+      TestMetamodels.metamodel("document_in_test", "unknown") shouldBe null
+    }
+
+    should("resolve documents from their source class") {
+      TestMetamodels.document(DocumentInTest::class) shouldBe MetaDocumentInTest.documentInTest
+      TestMetamodels.document(DocumentInTest::class.java) shouldBe
+        MetaDocumentInTest.documentInTest
+      // Same simple name in another package must resolve to its own metamodel
+      TestMetamodels.document(
+          com.ekino.oss.metalastic.other.integration.other.DocumentInTest::class
+        )
+        ?.indexName() shouldBe "document_in_test2"
+      TestMetamodels.document(String::class) shouldBe null
+    }
+
+    should("generate path constants and field ids matching the runtime path index") {
+      val document = MetaDocumentInTest.documentInTest
+
+      MetaDocumentInTest.Paths.ADDRESS_CITY shouldBe "address.city"
+      MetaDocumentInTest.Paths.CODE_SEARCH shouldBe "code.search"
+      MetaDocumentInTest.FieldIds.FIELD_COUNT shouldBe document.fieldCount()
+      document.fieldId(MetaDocumentInTest.Paths.CODE_SEARCH) shouldBe
+        MetaDocumentInTest.FieldIds.CODE_SEARCH
+      document.fieldById(MetaDocumentInTest.FieldIds.ADDRESS_CITY) shouldBe document.address.city
+      document.fieldId(document.code) shouldBe MetaDocumentInTest.FieldIds.CODE
+    }
   })